@@ -24,10 +24,15 @@
  */
 package com.intellectualsites.http;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -40,9 +45,18 @@ final class ClientSettings {
     private final Collection<Consumer<HttpClient.WrappedRequestBuilder>> decorators = new LinkedList<>();
     private String baseURL;
     private EntityMapper entityMapper;
+    private HttpEngine engine;
+    private boolean connectionReuse;
+    private int maxIdleConnections = 5;
+    private Duration keepAlive = Duration.ofSeconds(5);
+    private Executor executor;
+    private int connectTimeout;
+    private int readTimeout = 3600000;
+    private long timeout;
 
     ClientSettings() {
         this.baseURL = null;
+        this.engine = HttpEngine.urlConnection();
     }
 
     /**
@@ -85,6 +99,156 @@ final class ClientSettings {
         this.entityMapper = entityMapper;
     }
 
+    /**
+     * Get the engine that is used to send requests
+     *
+     * @return Engine
+     */
+    @NotNull HttpEngine getEngine() {
+        return this.engine;
+    }
+
+    /**
+     * Set the engine that is used to send requests
+     *
+     * @param engine Engine
+     */
+    void setEngine(@NotNull final HttpEngine engine) {
+        this.engine = Objects.requireNonNull(engine, "Engine may not be null");
+    }
+
+    /**
+     * Whether connections should be returned to the keep-alive pool
+     * once a response has been read, instead of being closed
+     *
+     * @return Whether connections are reused
+     */
+    boolean isConnectionReuse() {
+        return this.connectionReuse;
+    }
+
+    /**
+     * Set whether connections should be returned to the keep-alive pool
+     * once a response has been read, instead of being closed
+     *
+     * @param connectionReuse Whether connections are reused
+     */
+    void setConnectionReuse(final boolean connectionReuse) {
+        this.connectionReuse = connectionReuse;
+    }
+
+    /**
+     * Get the maximum amount of idle connections that are kept per host
+     *
+     * @return Maximum amount of idle connections
+     */
+    int getMaxIdleConnections() {
+        return this.maxIdleConnections;
+    }
+
+    /**
+     * Set the maximum amount of idle connections that are kept per host
+     *
+     * @param maxIdleConnections Maximum amount of idle connections
+     */
+    void setMaxIdleConnections(final int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    /**
+     * Get the duration for which an idle connection is kept alive
+     *
+     * @return Keep-alive duration
+     */
+    @NotNull Duration getKeepAlive() {
+        return this.keepAlive;
+    }
+
+    /**
+     * Set the duration for which an idle connection is kept alive
+     *
+     * @param keepAlive Keep-alive duration
+     */
+    void setKeepAlive(@NotNull final Duration keepAlive) {
+        this.keepAlive = Objects.requireNonNull(keepAlive, "Keep-alive duration may not be null");
+    }
+
+    /**
+     * Get the executor that runs asynchronous requests. Unless otherwise
+     * specified, this is a shared pool of daemon threads
+     *
+     * @return Executor
+     */
+    @NotNull Executor getExecutor() {
+        if (this.executor == null) {
+            return DefaultExecutorHolder.EXECUTOR;
+        }
+        return this.executor;
+    }
+
+    /**
+     * Set the executor that runs asynchronous requests
+     *
+     * @param executor Executor
+     */
+    void setExecutor(@NotNull final Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "Executor may not be null");
+    }
+
+    /**
+     * Get the default connect timeout of requests
+     *
+     * @return Connect timeout in milliseconds, or {@code 0} if there is none
+     */
+    int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * Set the default connect timeout of requests
+     *
+     * @param connectTimeout Connect timeout in milliseconds, or {@code 0} if there is none
+     */
+    void setConnectTimeout(final int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Get the default read timeout of requests
+     *
+     * @return Read timeout in milliseconds, or {@code 0} if there is none
+     */
+    int getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    /**
+     * Set the default read timeout of requests
+     *
+     * @param readTimeout Read timeout in milliseconds, or {@code 0} if there is none
+     */
+    void setReadTimeout(final int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Get the default total deadline of requests
+     *
+     * @return Timeout in milliseconds, or {@code 0} if there is none
+     */
+    long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * Set the default total deadline of requests
+     *
+     * @param timeout Timeout in milliseconds, or {@code 0} if there is none
+     */
+    void setTimeout(final long timeout) {
+        this.timeout = timeout;
+    }
+
     /**
      * Get all registered request decorators
      *
@@ -104,4 +268,16 @@ final class ClientSettings {
         this.decorators.add(Objects.requireNonNull(decorator, "Decorator may not be null"));
     }
 
+
+    private static final class DefaultExecutorHolder {
+
+        private static final AtomicInteger THREAD_ID = new AtomicInteger();
+        private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "HTTP4J-Async-" + THREAD_ID.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    }
+
 }
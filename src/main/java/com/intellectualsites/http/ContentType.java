@@ -24,29 +24,55 @@
  */
 package com.intellectualsites.http;
 
-import java.util.HashMap;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
- * Wrapper for Content-Type header values
+ * Wrapper for Content-Type header values. Values are parsed once into
+ * their type, subtype and parameters. Only canonical values, which have
+ * no parameters other than the charset, are cached, and the cache is
+ * bounded, so that values with unique parameters such as multipart
+ * boundaries do not accumulate. Cached values are keyed by their normalized
+ * form, such as {@code text/html; charset=utf-8}, so that spellings which
+ * only differ in case or whitespace share a single entry
  */
 public final class ContentType {
 
-    private static final Map<String, ContentType> internalMap = new HashMap<>();
+    private static final int MAX_CACHED_TYPES = 256;
+    private static final ConcurrentMap<String, ContentType> internalMap = new ConcurrentHashMap<>();
 
     public static final ContentType JSON = of("application/json; charset=UTF-8");
     public static final ContentType XML = of("application/xml");
     public static final ContentType TEXT = of("text/plain");
     public static final ContentType DUMMY = of("application/*");
     public static final ContentType STRING_UTF8 = of("text/html; charset=UTF-8");
+    public static final ContentType PROTOBUF = of("application/x-protobuf");
 
     private final String type;
+    private final String primaryType;
+    private final String subtype;
+    private final String mediaType;
+    private final Map<String, String> parameters;
+    private final Charset charset;
 
-    private ContentType(@NotNull final String type) {
+    private ContentType(@NotNull final String type, @NotNull final String primaryType, @NotNull final String subtype,
+                        @NotNull final Map<String, String> parameters) {
         this.type = type;
+        this.primaryType = primaryType;
+        this.subtype = subtype;
+        this.mediaType = subtype.isEmpty() ? primaryType : primaryType + '/' + subtype;
+        this.parameters = parameters;
+        this.charset = parseCharset(parameters.get("charset"));
     }
 
     /**
@@ -56,8 +82,152 @@ public final class ContentType {
      * @return MIME type instance
      */
     public static @NotNull ContentType of(@NotNull final String type) {
-        return internalMap.computeIfAbsent(Objects.requireNonNull(type,
-                "Type may not be null").toLowerCase(), ContentType::new);
+        Objects.requireNonNull(type, "Type may not be null");
+        final ContentType cached = internalMap.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        final ContentType contentType = parse(type);
+        if (!contentType.isCanonical()) {
+            return contentType;
+        }
+        // Other spellings are parsed, but resolve to the entry of the normalized form
+        final String normalized = contentType.normalize();
+        final ContentType normalizedType = internalMap.get(normalized);
+        if (normalizedType != null) {
+            return normalizedType;
+        }
+        if (internalMap.size() >= MAX_CACHED_TYPES) {
+            return contentType;
+        }
+        final ContentType canonical = normalized.equals(contentType.type) ? contentType
+                : new ContentType(normalized, contentType.primaryType, contentType.subtype, contentType.parameters);
+        final ContentType previous = internalMap.putIfAbsent(normalized, canonical);
+        return previous == null ? canonical : previous;
+    }
+
+    private static @NotNull ContentType parse(@NotNull final String value) {
+        final String type = value.toLowerCase(Locale.ROOT);
+        int end = value.indexOf(';');
+        if (end == -1) {
+            end = value.length();
+        }
+        final String mediaType = value.substring(0, end).trim().toLowerCase(Locale.ROOT);
+        final int slash = mediaType.indexOf('/');
+        final String subtype = slash == -1 ? "" : mediaType.substring(slash + 1);
+        final Map<String, String> parameters = new LinkedHashMap<>();
+        int index = end;
+        while (index < value.length()) {
+            // index points at the ';' preceding the parameter
+            final int equals = value.indexOf('=', index + 1);
+            if (equals == -1) {
+                break;
+            }
+            final String name = value.substring(index + 1, equals).trim().toLowerCase(Locale.ROOT);
+            int valueEnd;
+            String parameter;
+            if (equals + 1 < value.length() && value.charAt(equals + 1) == '"') {
+                final int quote = value.indexOf('"', equals + 2);
+                parameter = value.substring(equals + 2, quote == -1 ? value.length() : quote);
+                valueEnd = quote == -1 ? value.length() : value.indexOf(';', quote);
+            } else {
+                valueEnd = value.indexOf(';', equals + 1);
+                parameter = value.substring(equals + 1, valueEnd == -1 ? value.length() : valueEnd).trim();
+            }
+            if (!name.isEmpty()) {
+                parameters.put(name, parameter);
+            }
+            index = valueEnd == -1 ? value.length() : valueEnd;
+        }
+        return new ContentType(type, slash == -1 ? mediaType : mediaType.substring(0, slash), subtype,
+                parameters.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(parameters));
+    }
+
+    private static @Nullable Charset parseCharset(@Nullable final String charset) {
+        if (charset == null) {
+            return null;
+        }
+        try {
+            return Charset.forName(charset);
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return null;
+        }
+    }
+
+    private boolean isCanonical() {
+        return this.parameters.isEmpty() || (this.parameters.size() == 1 && this.charset != null);
+    }
+
+    private @NotNull String normalize() {
+        if (this.parameters.isEmpty()) {
+            return this.mediaType;
+        }
+        return this.mediaType + "; charset=" + this.parameters.get("charset").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Get the top level type, such as {@code application} in {@code application/json}
+     *
+     * @return Top level type
+     */
+    public @NotNull String getType() {
+        return this.primaryType;
+    }
+
+    /**
+     * Get the subtype, such as {@code json} in {@code application/json}
+     *
+     * @return Subtype, or an empty string if the value has none
+     */
+    public @NotNull String getSubtype() {
+        return this.subtype;
+    }
+
+    /**
+     * Get the media type without parameters, such as {@code application/json}
+     *
+     * @return Media type
+     */
+    public @NotNull String getMediaType() {
+        return this.mediaType;
+    }
+
+    /**
+     * Get the value of a parameter
+     *
+     * @param name Parameter name
+     * @return Parameter value, or {@code null} if the parameter is not present
+     */
+    public @Nullable String getParameter(@NotNull final String name) {
+        return this.parameters.get(Objects.requireNonNull(name, "Name may not be null").toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get all parameters, keyed by their lower case names
+     *
+     * @return Unmodifiable map of parameters
+     */
+    public @NotNull Map<String, String> getParameters() {
+        return this.parameters;
+    }
+
+    /**
+     * Get the charset specified by the {@code charset} parameter
+     *
+     * @return Charset, or {@code null} if none is specified or it is not supported
+     */
+    public @Nullable Charset getCharset() {
+        return this.charset;
+    }
+
+    /**
+     * Get the charset specified by the {@code charset} parameter
+     *
+     * @param defaultCharset Charset to return if none is specified or it is not supported
+     * @return Charset
+     */
+    public @NotNull Charset getCharset(@NotNull final Charset defaultCharset) {
+        return this.charset == null ? defaultCharset : this.charset;
     }
 
     @Override
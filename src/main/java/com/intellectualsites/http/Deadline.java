@@ -0,0 +1,152 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Total deadline of a request. Once the deadline expires, the
+ * request is aborted from a scheduler thread
+ */
+final class Deadline implements AutoCloseable {
+
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+    private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+        final Thread thread = new Thread(runnable, "HTTP4J-Deadline-" + THREAD_ID.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    static {
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long timeout;
+    private final long expiresAt;
+    private final ScheduledFuture<?> future;
+    // Decides whether the request completes or is aborted, whichever happens first
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    private Deadline(final long timeout, @Nullable final Runnable abort) {
+        this.timeout = timeout;
+        this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (abort == null) {
+            this.future = null;
+        } else {
+            this.future = SCHEDULER.schedule(() -> {
+                if (this.state.compareAndSet(PENDING, EXPIRED)) {
+                    abort.run();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Start the deadline of a request
+     *
+     * @param timeout Total timeout in milliseconds, or {@code 0} if the request has no deadline
+     * @param abort   Action that aborts the request
+     * @return Started deadline
+     */
+    static @NotNull Deadline start(final long timeout, @NotNull final Runnable abort) {
+        return new Deadline(timeout, timeout > 0 ? abort : null);
+    }
+
+    /**
+     * Whether the deadline has expired. The request may not have been aborted yet,
+     * if the scheduler has not caught up. A cancelled deadline does not expire
+     *
+     * @return Whether the deadline has expired
+     */
+    boolean isExpired() {
+        final int state = this.state.get();
+        return state == EXPIRED || (state == PENDING && this.future != null && System.nanoTime() - this.expiresAt >= 0);
+    }
+
+    /**
+     * Bound a connect timeout by the time left until the deadline. Connecting can not
+     * be aborted from another thread by every engine, so the deadline has to be
+     * enforced by the connect timeout itself
+     *
+     * @param connectTimeout Connect timeout in milliseconds, or {@code 0} if there is none
+     * @return Effective connect timeout in milliseconds, or {@code 0} if there is none
+     */
+    int boundConnectTimeout(final int connectTimeout) {
+        if (this.future == null) {
+            return connectTimeout;
+        }
+        final long remaining = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(this.expiresAt - System.nanoTime()));
+        if (connectTimeout == 0 || connectTimeout > remaining) {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+        return connectTimeout;
+    }
+
+    /**
+     * Create the exception that is thrown when the deadline has expired
+     *
+     * @param cause Exception caused by aborting the request
+     * @return Timeout exception
+     */
+    @NotNull SocketTimeoutException toException(@Nullable final Throwable cause) {
+        final SocketTimeoutException exception = new SocketTimeoutException(
+                String.format("Request exceeded its deadline of %dms", this.timeout));
+        exception.initCause(cause);
+        return exception;
+    }
+
+    /**
+     * Cancel the deadline, once the request has completed. If the request has
+     * been aborted already, its response can not be used
+     *
+     * @return {@code true} if the deadline was cancelled before the request was aborted
+     */
+    boolean cancel() {
+        if (this.future == null) {
+            return true;
+        }
+        this.future.cancel(false);
+        return this.state.compareAndSet(PENDING, CANCELLED) || this.state.get() == CANCELLED;
+    }
+
+    /**
+     * Cancel the deadline, if it has not been cancelled yet
+     */
+    @Override
+    public void close() {
+        this.cancel();
+    }
+
+}
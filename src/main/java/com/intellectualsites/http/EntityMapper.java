@@ -24,12 +24,31 @@
  */
 package com.intellectualsites.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -38,8 +57,9 @@ import org.jetbrains.annotations.Nullable;
  */
 public final class EntityMapper {
 
-    private final Map<Class<?>, EntitySerializer<?>> serializers = new HashMap<>();
-    private final Map<Class<?>, EntityDeserializer<?>> deserializers = new HashMap<>();
+    // Registrations replace the whole snapshot, so lookups never lock and
+    // mappers can be shared between any number of request threads
+    private volatile Codecs codecs = Codecs.EMPTY;
 
     @SuppressWarnings ("ALL")
     private static <T> T castUnsafe(@NotNull final Object o) {
@@ -70,7 +90,12 @@ public final class EntityMapper {
                                                         @NotNull final EntitySerializer<T> serializer) {
         Objects.requireNonNull(clazz, "Class may not be null");
         Objects.requireNonNull(serializer, "Serializer may not be null");
-        this.serializers.put(clazz, serializer);
+        synchronized (this) {
+            final Map<Class<?>, Optional<EntitySerializer<?>>> serializers = new HashMap<>(this.codecs.serializers);
+            serializers.put(clazz, Optional.of(serializer));
+            this.codecs = new Codecs(serializers, this.codecs.deserializers, this.codecs.negotiatedDeserializers,
+                    this.codecs.fallback);
+        }
         return this;
     }
 
@@ -84,43 +109,379 @@ public final class EntityMapper {
      */
     public @NotNull <T> EntityMapper registerDeserializer(@NotNull final Class<T> clazz,
                                                  @NotNull final EntityDeserializer<T> deserializer) {
-        Objects.requireNonNull(clazz, "Type may not be null");
+        return this.registerDeserializer((Type) clazz, deserializer);
+    }
+
+    /**
+     * Register a deserializer for a parameterized type, such as {@code List<String>}
+     *
+     * @param type         Type reference
+     * @param deserializer Deserializer
+     * @param <T>          Type of the objects produces by the deserializer
+     * @return Mapper instance
+     */
+    public @NotNull <T> EntityMapper registerDeserializer(@NotNull final TypeReference<T> type,
+                                                          @NotNull final EntityDeserializer<T> deserializer) {
+        Objects.requireNonNull(type, "Type may not be null");
+        return this.registerDeserializer(type.getType(), deserializer);
+    }
+
+    /**
+     * Register a deserializer for a type. The caller is responsible for the
+     * deserializer producing instances of the type
+     *
+     * @param type         Type, which may be parameterized
+     * @param deserializer Deserializer
+     * @return Mapper instance
+     */
+    public @NotNull EntityMapper registerDeserializer(@NotNull final Type type,
+                                                      @NotNull final EntityDeserializer<?> deserializer) {
+        Objects.requireNonNull(type, "Type may not be null");
+        Objects.requireNonNull(deserializer, "Deserializer may not be null");
+        synchronized (this) {
+            final Map<Type, Optional<EntityDeserializer<?>>> deserializers =
+                    new HashMap<>(this.codecs.deserializers);
+            deserializers.put(type, Optional.of(deserializer));
+            this.codecs = new Codecs(this.codecs.serializers, deserializers, this.codecs.negotiatedDeserializers,
+                    this.codecs.fallback);
+        }
+        return this;
+    }
+
+    /**
+     * Register a deserializer that is used when the response has a specific content type.
+     * Requests can then advertise the content type in their Accept header, see
+     * {@link HttpClient.WrappedRequestBuilder#withAccept(Type)}
+     *
+     * @param clazz        Type of the produced objects
+     * @param contentType  Content type. Only the media type is considered, parameters are ignored
+     * @param deserializer Deserializer
+     * @param <T>          Type of the objects produces by the deserializer
+     * @return Mapper instance
+     */
+    public @NotNull <T> EntityMapper registerDeserializer(@NotNull final Class<T> clazz,
+                                                          @NotNull final ContentType contentType,
+                                                          @NotNull final EntityDeserializer<T> deserializer) {
+        return this.registerDeserializer((Type) clazz, contentType, deserializer);
+    }
+
+    /**
+     * Register a deserializer for a parameterized type that is used when the response
+     * has a specific content type
+     *
+     * @param type         Type reference
+     * @param contentType  Content type. Only the media type is considered, parameters are ignored
+     * @param deserializer Deserializer
+     * @param <T>          Type of the objects produces by the deserializer
+     * @return Mapper instance
+     */
+    public @NotNull <T> EntityMapper registerDeserializer(@NotNull final TypeReference<T> type,
+                                                          @NotNull final ContentType contentType,
+                                                          @NotNull final EntityDeserializer<T> deserializer) {
+        Objects.requireNonNull(type, "Type may not be null");
+        return this.registerDeserializer(type.getType(), contentType, deserializer);
+    }
+
+    /**
+     * Register a deserializer for a type that is used when the response has a specific
+     * content type. The caller is responsible for the deserializer producing instances of the type
+     *
+     * @param type         Type, which may be parameterized
+     * @param contentType  Content type. Only the media type is considered, parameters are ignored
+     * @param deserializer Deserializer
+     * @return Mapper instance
+     */
+    public @NotNull EntityMapper registerDeserializer(@NotNull final Type type,
+                                                      @NotNull final ContentType contentType,
+                                                      @NotNull final EntityDeserializer<?> deserializer) {
+        Objects.requireNonNull(type, "Type may not be null");
+        Objects.requireNonNull(contentType, "Content type may not be null");
         Objects.requireNonNull(deserializer, "Deserializer may not be null");
-        this.deserializers.put(clazz, deserializer);
+        synchronized (this) {
+            final Map<Type, Map<String, Optional<EntityDeserializer<?>>>> negotiatedDeserializers =
+                    new HashMap<>(this.codecs.negotiatedDeserializers);
+            final Map<String, Optional<EntityDeserializer<?>>> byMediaType =
+                    new LinkedHashMap<>(negotiatedDeserializers.getOrDefault(type, Collections.emptyMap()));
+            byMediaType.put(contentType.getMediaType(), Optional.of(deserializer));
+            negotiatedDeserializers.put(type, byMediaType);
+            this.codecs = new Codecs(this.codecs.serializers, this.codecs.deserializers, negotiatedDeserializers,
+                    this.codecs.fallback);
+        }
         return this;
     }
 
     /**
-     * Attempt to retrieve the serializer for a given type
+     * Register a codec factory that is consulted for types without a registered
+     * serializer or deserializer. This replaces any previously registered fallback
+     *
+     * @param fallback Codec factory, or {@code null} to remove the fallback
+     * @return Mapper instance
+     */
+    public @NotNull EntityMapper registerFallback(@Nullable final EntityCodecFactory fallback) {
+        synchronized (this) {
+            this.codecs = new Codecs(this.codecs.serializers, this.codecs.deserializers,
+                    this.codecs.negotiatedDeserializers, fallback);
+        }
+        return this;
+    }
+
+    /**
+     * Attempt to retrieve the serializer for a given type. If no serializer
+     * is registered for the exact type, the serializer of the closest
+     * superclass or interface is used, and then the fallback
      *
      * @param clazz Class
      * @param <T>   Type
      * @return Serializer
      */
     public <T> Optional<EntitySerializer<T>> getSerializer(@NotNull final Class<T> clazz) {
-        final EntitySerializer<?> serializer = this.serializers.get(clazz);
-        if (serializer == null) {
-            return Optional.empty();
-        }
-        return Optional.of(castUnsafe(serializer));
+        return castUnsafe(this.codecs.resolvedSerializers.get(clazz));
     }
 
     /**
-     * Attempt to retrieve the deserializer for a given content type
+     * Attempt to retrieve the deserializer for a given content type. Unlike
+     * serializers, deserializers are only matched by exact type, as a
+     * deserializer for a supertype cannot be trusted to produce instances of
+     * the requested subtype. The fallback is used for types without a
+     * registered deserializer
      *
      * @param type Content class
      * @param <T>  Content type
      * @return Deserializer
      */
     public <T> Optional<EntityDeserializer<T>> getDeserializer(@NotNull final Class<T> type) {
-        final EntityDeserializer<?> entityDeserializer = this.deserializers.get(type);
-        if (entityDeserializer == null) {
+        return this.getDeserializer((Type) type);
+    }
+
+    /**
+     * Attempt to retrieve the deserializer for a parameterized type
+     *
+     * @param type Type reference
+     * @param <T>  Content type
+     * @return Deserializer
+     */
+    public <T> Optional<EntityDeserializer<T>> getDeserializer(@NotNull final TypeReference<T> type) {
+        return this.getDeserializer(type.getType());
+    }
+
+    /**
+     * Attempt to retrieve the deserializer for a type, which may be parameterized.
+     * A parameterized type that only has unbounded wildcard arguments, such as
+     * {@code List<?>}, also matches the deserializer of its raw type
+     *
+     * @param type Type
+     * @param <T>  Content type
+     * @return Deserializer
+     */
+    public <T> Optional<EntityDeserializer<T>> getDeserializer(@NotNull final Type type) {
+        return castUnsafe(this.codecs.getDeserializer(type));
+    }
+
+    /**
+     * Attempt to retrieve the deserializer for a type and the content type of a response.
+     * Deserializers registered for the media type are preferred. Otherwise, the deserializer
+     * registered without a content type is used, and failing that the first deserializer
+     * registered for any media type
+     *
+     * @param type        Type, which may be parameterized
+     * @param contentType Content type of the response, if known
+     * @param <T>         Content type
+     * @return Deserializer
+     */
+    public <T> Optional<EntityDeserializer<T>> getDeserializer(@NotNull final Type type,
+                                                               @Nullable final ContentType contentType) {
+        final Codecs codecs = this.codecs;
+        final Map<String, Optional<EntityDeserializer<?>>> byMediaType = codecs.negotiatedDeserializers.get(type);
+        if (byMediaType == null) {
+            return castUnsafe(codecs.getDeserializer(type));
+        }
+        if (contentType != null) {
+            final Optional<EntityDeserializer<?>> entityDeserializer = byMediaType.get(contentType.getMediaType());
+            if (entityDeserializer != null) {
+                return castUnsafe(entityDeserializer);
+            }
+        }
+        final Optional<EntityDeserializer<?>> entityDeserializer = codecs.getDeserializer(type);
+        if (entityDeserializer.isPresent()) {
+            return castUnsafe(entityDeserializer);
+        }
+        return castUnsafe(byMediaType.values().iterator().next());
+    }
+
+    /**
+     * Get the content types that can be deserialized into a type, in order of
+     * preference. Deserializers that do not declare a content type are not included
+     *
+     * @param type Type, which may be parameterized
+     * @return Unmodifiable list of content types
+     */
+    public @NotNull List<ContentType> getAcceptedContentTypes(@NotNull final Type type) {
+        final Codecs codecs = this.codecs;
+        List<ContentType> contentTypes = codecs.acceptedContentTypes.get(type);
+        if (contentTypes == null) {
+            contentTypes = codecs.acceptedContentTypes.computeIfAbsent(type, key -> {
+                final Map<String, ContentType> accepted = new LinkedHashMap<>();
+                for (final String mediaType : codecs.negotiatedDeserializers.getOrDefault(key,
+                        Collections.emptyMap()).keySet()) {
+                    accepted.put(mediaType, ContentType.of(mediaType));
+                }
+                codecs.getDeserializer(key).map(EntityDeserializer::getContentType)
+                        .ifPresent(contentType -> accepted.putIfAbsent(contentType.getMediaType(), contentType));
+                return Collections.unmodifiableList(new ArrayList<>(accepted.values()));
+            });
+        }
+        return contentTypes;
+    }
+
+    /**
+     * Immutable snapshot of the registered codecs. The lookup results are
+     * stored as {@link Optional optionals} so that lookups do not allocate.
+     * Resolved codecs are memoised per snapshot, so registering a codec
+     * discards them
+     */
+    private static final class Codecs {
+
+        private static final Codecs EMPTY = new Codecs(Collections.emptyMap(), Collections.emptyMap(),
+                Collections.emptyMap(), null);
+
+        private final Map<Class<?>, Optional<EntitySerializer<?>>> serializers;
+        private final Map<Type, Optional<EntityDeserializer<?>>> deserializers;
+        private final Map<Type, Map<String, Optional<EntityDeserializer<?>>>> negotiatedDeserializers;
+        private final EntityCodecFactory fallback;
+        private final ConcurrentMap<Type, List<ContentType>> acceptedContentTypes = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Type, Optional<EntityDeserializer<?>>> resolvedDeserializers =
+                new ConcurrentHashMap<>();
+        private final ClassValue<Optional<EntitySerializer<?>>> resolvedSerializers =
+                new ClassValue<Optional<EntitySerializer<?>>>() {
+                    @Override
+                    protected Optional<EntitySerializer<?>> computeValue(final Class<?> type) {
+                        return resolveSerializer(type);
+                    }
+                };
+
+        private Codecs(@NotNull final Map<Class<?>, Optional<EntitySerializer<?>>> serializers,
+                       @NotNull final Map<Type, Optional<EntityDeserializer<?>>> deserializers,
+                       @NotNull final Map<Type, Map<String, Optional<EntityDeserializer<?>>>> negotiatedDeserializers,
+                       @Nullable final EntityCodecFactory fallback) {
+            this.serializers = serializers;
+            this.deserializers = deserializers;
+            this.negotiatedDeserializers = negotiatedDeserializers;
+            this.fallback = fallback;
+        }
+
+        private @NotNull Optional<EntityDeserializer<?>> getDeserializer(@NotNull final Type type) {
+            final Optional<EntityDeserializer<?>> deserializer = this.resolvedDeserializers.get(type);
+            if (deserializer != null) {
+                return deserializer;
+            }
+            return this.resolvedDeserializers.computeIfAbsent(type, this::resolveDeserializer);
+        }
+
+        private @NotNull Optional<EntitySerializer<?>> resolveSerializer(@NotNull final Class<?> type) {
+            final Optional<EntitySerializer<?>> serializer = this.resolveRegisteredSerializer(type);
+            if (serializer.isPresent() || this.fallback == null) {
+                return serializer;
+            }
+            return castUnsafe(this.fallback.createSerializer(type));
+        }
+
+        private @NotNull Optional<EntityDeserializer<?>> resolveDeserializer(@NotNull final Type type) {
+            final Optional<EntityDeserializer<?>> deserializer = this.resolveRegisteredDeserializer(type);
+            if (deserializer.isPresent() || this.fallback == null) {
+                return deserializer;
+            }
+            return castUnsafe(this.fallback.createDeserializer(type));
+        }
+
+        /**
+         * Find the serializer for the most specific registered type, checking
+         * the superclass chain before interfaces and {@link Object} last
+         */
+        private @NotNull Optional<EntitySerializer<?>> resolveRegisteredSerializer(@NotNull final Class<?> type) {
+            if (this.serializers.isEmpty()) {
+                return Optional.empty();
+            }
+            for (Class<?> current = type; current != null && current != Object.class;
+                 current = current.getSuperclass()) {
+                final Optional<EntitySerializer<?>> serializer = this.serializers.get(current);
+                if (serializer != null) {
+                    return serializer;
+                }
+            }
+            final Deque<Class<?>> queue = new ArrayDeque<>();
+            final Set<Class<?>> visited = new HashSet<>();
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                Collections.addAll(queue, current.getInterfaces());
+            }
+            while (!queue.isEmpty()) {
+                final Class<?> current = queue.poll();
+                if (!visited.add(current)) {
+                    continue;
+                }
+                final Optional<EntitySerializer<?>> serializer = this.serializers.get(current);
+                if (serializer != null) {
+                    return serializer;
+                }
+                Collections.addAll(queue, current.getInterfaces());
+            }
+            return this.serializers.getOrDefault(Object.class, Optional.empty());
+        }
+
+        private @NotNull Optional<EntityDeserializer<?>> resolveRegisteredDeserializer(@NotNull final Type type) {
+            final Optional<EntityDeserializer<?>> deserializer = this.deserializers.get(type);
+            if (deserializer != null) {
+                return deserializer;
+            }
+            if (type instanceof ParameterizedType) {
+                for (final Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                    if (!isUnboundedWildcard(argument)) {
+                        return Optional.empty();
+                    }
+                }
+                return this.deserializers.getOrDefault(((ParameterizedType) type).getRawType(), Optional.empty());
+            }
             return Optional.empty();
         }
-        return Optional.of((EntityDeserializer<T>) entityDeserializer);
+
+        private static boolean isUnboundedWildcard(@NotNull final Type type) {
+            if (!(type instanceof WildcardType)) {
+                return false;
+            }
+            final WildcardType wildcard = (WildcardType) type;
+            return wildcard.getLowerBounds().length == 0
+                    && (wildcard.getUpperBounds().length == 0 || wildcard.getUpperBounds()[0] == Object.class);
+        }
+
     }
 
 
+    /**
+     * Factory for codecs of types that have no registered serializer or
+     * deserializer. The results are cached by the mapper, until another
+     * codec is registered
+     */
+    public interface EntityCodecFactory {
+
+        /**
+         * Attempt to create a serializer for a type
+         *
+         * @param clazz Class
+         * @param <T>   Type
+         * @return Serializer, or an empty optional if the type is not supported
+         */
+        @NotNull <T> Optional<EntitySerializer<T>> createSerializer(@NotNull final Class<T> clazz);
+
+        /**
+         * Attempt to create a deserializer for a type
+         *
+         * @param type Type, which may be parameterized
+         * @param <T>  Type
+         * @return Deserializer, or an empty optional if the type is not supported
+         */
+        @NotNull <T> Optional<EntityDeserializer<T>> createDeserializer(@NotNull final Type type);
+
+    }
+
     /**
      * Serializer for HTTP request bodies
      *
@@ -146,6 +507,49 @@ public final class EntityMapper {
 
     }
 
+    /**
+     * Serializer that writes HTTP request bodies straight to the
+     * connection, rather than into an intermediate byte array. A streamed
+     * body can not be sent twice, so the {@link HttpEngine#urlConnection() default engine}
+     * does not follow redirects or answer authentication challenges for these requests
+     *
+     * @param <T> Object type
+     */
+    public interface StreamingEntitySerializer<T> extends EntitySerializer<T> {
+
+        /**
+         * Serialize the input into the stream of the HTTP request
+         *
+         * @param input        Input that should be serialized
+         * @param outputStream Stream to write to. This should not be closed by the serializer
+         * @throws IOException If the input could not be written
+         */
+        void serialize(@NotNull final T input, @NotNull final OutputStream outputStream) throws IOException;
+
+        /**
+         * Get the amount of bytes that will be written for the input. If this
+         * is not known up front, the request body is sent in chunks
+         *
+         * @param input Input that should be serialized
+         * @return Length in bytes, or {@code -1} if unknown
+         */
+        default long getContentLength(@NotNull final T input) {
+            return -1;
+        }
+
+        @Override
+        default byte @NotNull [] serialize(@NotNull final T input) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try {
+                this.serialize(input, outputStream);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return outputStream.toByteArray();
+        }
+
+    }
+
     /**
      * Deserializer for HTTP response bodies
      *
@@ -164,6 +568,48 @@ public final class EntityMapper {
         @NotNull T deserialize(@Nullable final ContentType contentType,
                                final byte @NotNull [] input);
 
+        /**
+         * Get the content type read by the deserializer, which requests
+         * advertise in their Accept header
+         *
+         * @return Content type, or {@code null} if the deserializer is not specific to one
+         */
+        default @Nullable ContentType getContentType() {
+            return null;
+        }
+
+    }
+
+    /**
+     * Deserializer that reads HTTP response bodies from a stream, so that
+     * streamed responses are decoded straight from the connection
+     *
+     * @param <T> Object type
+     */
+    @FunctionalInterface
+    public interface StreamingEntityDeserializer<T> extends EntityDeserializer<T> {
+
+        /**
+         * Deserialize the input stream into an object
+         *
+         * @param contentType Optional content type, if supplied by the server
+         * @param inputStream Stream to read from. This should not be closed by the deserializer
+         * @return De-serialized input
+         * @throws IOException If the input could not be read
+         */
+        @NotNull T deserialize(@Nullable final ContentType contentType,
+                               @NotNull final InputStream inputStream) throws IOException;
+
+        @Override
+        default @NotNull T deserialize(@Nullable final ContentType contentType,
+                                       final byte @NotNull [] input) {
+            try {
+                return this.deserialize(contentType, new ByteArrayInputStream(input));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
     }
 
     private static final class StringDeserializer implements EntityDeserializer<String> {
@@ -171,15 +617,8 @@ public final class EntityMapper {
         @Override
         public @NotNull String deserialize(@Nullable final ContentType contentType,
                                   final byte @NotNull [] input) {
-            final Charset charset;
-            if (contentType != null && contentType.toString().toLowerCase().contains("utf-8")) {
-                charset = StandardCharsets.UTF_8;
-            } else if (contentType != null && contentType.toString().toLowerCase()
-                    .contains("utf-16")) {
-                charset = StandardCharsets.UTF_16;
-            } else {
-                charset = StandardCharsets.US_ASCII;
-            }
+            final Charset charset = contentType == null ? StandardCharsets.US_ASCII
+                    : contentType.getCharset(StandardCharsets.US_ASCII);
             return new String(input, charset);
         }
 
@@ -0,0 +1,153 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.util.Locale;
+import java.util.Objects;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Name of a HTTP header. The canonical lower case form of the name and
+ * its case-insensitive hash are computed once, so that header lookups
+ * using a name do not need to fold or hash the name again
+ */
+public final class HeaderName {
+
+    public static final HeaderName ACCEPT = of("Accept");
+    public static final HeaderName ACCEPT_ENCODING = of("Accept-Encoding");
+    public static final HeaderName AUTHORIZATION = of("Authorization");
+    public static final HeaderName CACHE_CONTROL = of("Cache-Control");
+    public static final HeaderName CONNECTION = of("Connection");
+    public static final HeaderName CONTENT_ENCODING = of("Content-Encoding");
+    public static final HeaderName CONTENT_LENGTH = of("Content-Length");
+    public static final HeaderName CONTENT_TYPE = of("Content-Type");
+    public static final HeaderName HOST = of("Host");
+    public static final HeaderName LOCATION = of("Location");
+    public static final HeaderName TRANSFER_ENCODING = of("Transfer-Encoding");
+    public static final HeaderName USER_AGENT = of("User-Agent");
+
+    private final String name;
+    private final int hash;
+
+    private HeaderName(@NotNull final String name) {
+        this.name = name;
+        this.hash = hash(name);
+    }
+
+    /**
+     * Get the header name instance for a name. Header names are case-insensitive
+     *
+     * @param name Header name
+     * @return Header name instance
+     * @throws IllegalArgumentException If the name is empty or contains non-ASCII characters
+     */
+    public static @NotNull HeaderName of(@NotNull final String name) {
+        Objects.requireNonNull(name, "Name may not be null");
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Name may not be empty");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c <= ' ' || c >= 0x7F || c == ':') {
+                throw new IllegalArgumentException(String.format("Invalid character in header name '%s'", name));
+            }
+        }
+        return new HeaderName(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Compute the case-insensitive hash of a header name, ignoring
+     * the case of ASCII letters. This does not allocate
+     *
+     * @param name Header name
+     * @return Hash
+     */
+    static int hash(@NotNull final String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + toLowerCase(name.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Compare two header names, ignoring the case of ASCII letters
+     *
+     * @param first  First name
+     * @param second Second name
+     * @return Whether the names are equal
+     */
+    static boolean equals(@NotNull final String first, @NotNull final String second) {
+        final int length = first.length();
+        if (length != second.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final char a = first.charAt(i);
+            final char b = second.charAt(i);
+            if (a != b && toLowerCase(a) != toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerCase(final char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Get the canonical, lower case, header name
+     *
+     * @return Header name
+     */
+    public @NotNull String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(@Nullable final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || this.getClass() != o.getClass()) {
+            return false;
+        }
+        final HeaderName headerName = (HeaderName) o;
+        return this.hash == headerName.hash && this.name.equals(headerName.name);
+    }
+
+}
@@ -24,16 +24,32 @@
  */
 package com.intellectualsites.http;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
- * Container for HTTP headers
+ * Container for HTTP headers. Headers are stored as flat arrays of
+ * names, name hashes and values, in the order they were added, and
+ * names are compared case-insensitively without allocating
  */
-final class Headers {
+public final class Headers {
 
-    private final Map<String, List<String>> headers = new HashMap<>();
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private String[] values = new String[INITIAL_CAPACITY];
+    private int size;
 
     private Headers() {
     }
@@ -47,23 +63,70 @@ final class Headers {
         return new Headers();
     }
 
+    /**
+     * Copy headers from a map of header names to values. Entries
+     * without a name, such as the status line, are skipped
+     *
+     * @param map Header map
+     * @return Headers instance
+     */
+    static Headers fromMap(@NotNull final Map<String, List<String>> map) {
+        final Headers headers = new Headers();
+        for (final Map.Entry<String, List<String>> entry : map.entrySet()) {
+            if (entry.getKey() == null) {
+                continue;
+            }
+            for (final String value : entry.getValue()) {
+                headers.addHeader(entry.getKey(), value);
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Add a header to the header collection
+     *
+     * @param key   Header name
+     * @param value Header value
+     */
+    void addHeader(@NotNull final String key, @NotNull final String value) {
+        Objects.requireNonNull(key, "Key may not be null");
+        this.addHeader(key, HeaderName.hash(key), value);
+    }
+
     /**
      * Add a header to the header collection
      *
      * @param key   Header name
      * @param value Header value
      */
-    void addHeader(@NotNull String key, @NotNull final String value) {
+    void addHeader(@NotNull final HeaderName key, @NotNull final String value) {
         Objects.requireNonNull(key, "Key may not be null");
+        this.addHeader(key.getName(), key.hashCode(), value);
+    }
+
+    private void addHeader(@NotNull final String key, final int hash, @NotNull final String value) {
         Objects.requireNonNull(value, "Value may not be null");
-        key = key.toLowerCase();
-        if (this.headers.containsKey(key)) {
-            this.headers.get(key).add(value);
-        } else {
-            final List<String> headers = new LinkedList<>();
-            headers.add(value);
-            this.headers.put(key, headers);
+        if (this.size == this.names.length) {
+            this.names = Arrays.copyOf(this.names, this.size << 1);
+            this.hashes = Arrays.copyOf(this.hashes, this.size << 1);
+            this.values = Arrays.copyOf(this.values, this.size << 1);
         }
+        this.names[this.size] = key;
+        this.hashes[this.size] = hash;
+        this.values[this.size] = value;
+        this.size++;
+    }
+
+    /**
+     * Get a list of all the headers with the specified name
+     *
+     * @param key Header key
+     * @return Unmodifiable list
+     */
+    public @NotNull List<String> getHeaders(@NotNull final String key) {
+        Objects.requireNonNull(key, "Key may not be null");
+        return this.getHeaders(key, HeaderName.hash(key));
     }
 
     /**
@@ -72,13 +135,48 @@ final class Headers {
      * @param key Header key
      * @return Unmodifiable list
      */
-    @NotNull List<String> getHeaders(@NotNull final String key) {
+    public @NotNull List<String> getHeaders(@NotNull final HeaderName key) {
         Objects.requireNonNull(key, "Key may not be null");
-        final List<String> headers = this.headers.get(key.toLowerCase());
-        if (headers == null) {
+        return this.getHeaders(key.getName(), key.hashCode());
+    }
+
+    private @NotNull List<String> getHeaders(@NotNull final String key, final int hash) {
+        return this.getHeaders(key, hash, 0);
+    }
+
+    private @NotNull List<String> getHeaders(@NotNull final String key, final int hash, final int start) {
+        int count = 0;
+        int last = -1;
+        for (int i = start; i < this.size; i++) {
+            if (this.matches(i, key, hash)) {
+                count++;
+                last = i;
+            }
+        }
+        if (count == 0) {
             return Collections.emptyList();
+        } else if (count == 1) {
+            return Collections.singletonList(this.values[last]);
+        }
+        final String[] headers = new String[count];
+        for (int i = start, index = 0; index < count; i++) {
+            if (this.matches(i, key, hash)) {
+                headers[index++] = this.values[i];
+            }
         }
-        return Collections.unmodifiableList(headers);
+        return Collections.unmodifiableList(Arrays.asList(headers));
+    }
+
+    /**
+     * Get the value of a specific header, or an empty string.
+     * If multiple values are specified for the header key,
+     * only the last value will be returned.
+     *
+     * @param key Header key
+     * @return Header value, or {@code ""}
+     */
+    public @NotNull String getHeader(@NotNull final String key) {
+        return Objects.requireNonNull(this.getOrDefault(key, ""));
     }
 
     /**
@@ -89,7 +187,7 @@ final class Headers {
      * @param key Header key
      * @return Header value, or {@code ""}
      */
-    @NotNull String getHeader(@NotNull final String key) {
+    public @NotNull String getHeader(@NotNull final HeaderName key) {
         return Objects.requireNonNull(this.getOrDefault(key, ""));
     }
 
@@ -102,21 +200,77 @@ final class Headers {
      * @param defaultString Default value
      * @return Header value, or the default value
      */
-    @Nullable String getOrDefault(@NotNull final String key, @Nullable final String defaultString) {
-        final List<String> headers = this.getHeaders(key);
-        if (headers.isEmpty()) {
-            return defaultString;
+    public @Nullable String getOrDefault(@NotNull final String key, @Nullable final String defaultString) {
+        Objects.requireNonNull(key, "Key may not be null");
+        return this.getOrDefault(key, HeaderName.hash(key), defaultString);
+    }
+
+    /**
+     * Get the value of a specific header, or default string.
+     * If multiple values are specified for the header key,
+     * only the last value will be returned.
+     *
+     * @param key           Header key
+     * @param defaultString Default value
+     * @return Header value, or the default value
+     */
+    public @Nullable String getOrDefault(@NotNull final HeaderName key, @Nullable final String defaultString) {
+        Objects.requireNonNull(key, "Key may not be null");
+        return this.getOrDefault(key.getName(), key.hashCode(), defaultString);
+    }
+
+    private @Nullable String getOrDefault(@NotNull final String key, final int hash,
+                                          @Nullable final String defaultString) {
+        for (int i = this.size - 1; i >= 0; i--) {
+            if (this.matches(i, key, hash)) {
+                return this.values[i];
+            }
+        }
+        return defaultString;
+    }
+
+    private boolean matches(final int index, @NotNull final String key, final int hash) {
+        return this.hashes[index] == hash && HeaderName.equals(this.names[index], key);
+    }
+
+    /**
+     * Perform an action for every header name in the collection, with all values of
+     * that header. Headers are visited in the order their names were first added, and
+     * each name is passed as it was first added
+     *
+     * @param action Action that receives the header name and an unmodifiable list of its values
+     */
+    public void forEach(@NotNull final BiConsumer<String, List<String>> action) {
+        Objects.requireNonNull(action, "Action may not be null");
+        for (int i = 0; i < this.size; i++) {
+            if (this.isFirst(i)) {
+                action.accept(this.names[i], this.getHeaders(this.names[i], this.hashes[i], i));
+            }
         }
-        return headers.get(headers.size() - 1);
+    }
+
+    private boolean isFirst(final int index) {
+        for (int i = 0; i < index; i++) {
+            if (this.matches(i, this.names[index], this.hashes[index])) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Get the name of all headers in the collection
+     * Get the name of all headers in the collection. This copies the names on
+     * every call, and is kept for compatibility, {@link #forEach(BiConsumer)}
+     * iterates the headers without copying them
      *
-     * @return Unmodifiable collection
+     * @return Unmodifiable collection of lower case names
      */
-    @NotNull Collection<String> getHeaders() {
-        return Collections.unmodifiableSet(this.headers.keySet());
+    public @NotNull Collection<String> getHeaders() {
+        final Set<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < this.size; i++) {
+            names.add(this.names[i].toLowerCase(Locale.ROOT));
+        }
+        return Collections.unmodifiableSet(names);
     }
 
 }
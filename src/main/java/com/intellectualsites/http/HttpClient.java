@@ -24,12 +24,17 @@
  */
 package com.intellectualsites.http;
 
+import java.io.IOException;
+import java.lang.reflect.Type;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import org.jetbrains.annotations.NotNull;
@@ -45,6 +50,7 @@ public final class HttpClient {
 
     private HttpClient(@NotNull final ClientSettings settings) {
         this.settings = Objects.requireNonNull(settings);
+        this.settings.getEngine().configure(this.settings);
     }
 
     /**
@@ -132,6 +138,37 @@ public final class HttpClient {
     }
 
 
+    /**
+     * Convert a timeout to milliseconds
+     *
+     * @param timeout Timeout, where zero means that there is no timeout
+     * @param name    Name of the timeout
+     * @return Timeout in milliseconds
+     */
+    private static long toMillis(@NotNull final Duration timeout, @NotNull final String name) {
+        Objects.requireNonNull(timeout, name + " may not be null");
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException(name + " may not be negative");
+        }
+        if (timeout.isZero()) {
+            return 0L;
+        }
+        // Round up, so that sub-millisecond timeouts do not mean "no timeout"
+        return Math.max(1L, timeout.toMillis());
+    }
+
+    /**
+     * Convert a socket timeout to milliseconds
+     *
+     * @param timeout Timeout, where zero means that there is no timeout
+     * @param name    Name of the timeout
+     * @return Timeout in milliseconds
+     */
+    private static int toSocketTimeout(@NotNull final Duration timeout, @NotNull final String name) {
+        return (int) Math.min(Integer.MAX_VALUE, toMillis(timeout, name));
+    }
+
+
     /**
      * Builder for {@link HttpClient}. Use {@link #newBuilder()} to create
      * an instance of the builder
@@ -173,6 +210,125 @@ public final class HttpClient {
             return this;
         }
 
+        /**
+         * Set the engine that performs the I/O of all requests. By default
+         * {@link HttpEngine#urlConnection()} is used
+         *
+         * @param engine Engine
+         * @return Builder instance
+         */
+        public @NotNull Builder withEngine(@NotNull final HttpEngine engine) {
+            this.settings.setEngine(Objects.requireNonNull(engine, "Engine may not be null"));
+            return this;
+        }
+
+        /**
+         * Set whether connections should be kept alive and reused by later requests,
+         * instead of being closed once the response has been read. Disabled by default
+         *
+         * @param connectionReuse Whether connections are reused
+         * @return Builder instance
+         */
+        public @NotNull Builder withConnectionReuse(final boolean connectionReuse) {
+            this.settings.setConnectionReuse(connectionReuse);
+            return this;
+        }
+
+        /**
+         * Set the maximum amount of idle connections that are kept alive per host.
+         * Only applies when {@link #withConnectionReuse(boolean) connection reuse} is enabled
+         *
+         * @param maxIdleConnections Maximum amount of idle connections
+         * @return Builder instance
+         */
+        public @NotNull Builder withMaxIdleConnections(final int maxIdleConnections) {
+            if (maxIdleConnections < 1) {
+                throw new IllegalArgumentException("Max idle connections must be positive");
+            }
+            this.settings.setMaxIdleConnections(maxIdleConnections);
+            return this;
+        }
+
+        /**
+         * Set the duration for which idle connections are kept alive, unless the server
+         * specifies otherwise. Only applies when {@link #withConnectionReuse(boolean) connection reuse}
+         * is enabled
+         *
+         * @param keepAlive Keep-alive duration
+         * @return Builder instance
+         */
+        public @NotNull Builder withKeepAlive(@NotNull final Duration keepAlive) {
+            Objects.requireNonNull(keepAlive, "Keep-alive duration may not be null");
+            if (keepAlive.isNegative() || keepAlive.isZero()) {
+                throw new IllegalArgumentException("Keep-alive duration must be positive");
+            }
+            this.settings.setKeepAlive(keepAlive);
+            return this;
+        }
+
+        /**
+         * Set the default timeout for establishing a connection. By default,
+         * there is no connect timeout
+         *
+         * @param connectTimeout Connect timeout, or {@link Duration#ZERO} to wait indefinitely
+         * @return Builder instance
+         */
+        public @NotNull Builder withConnectTimeout(@NotNull final Duration connectTimeout) {
+            this.settings.setConnectTimeout(toSocketTimeout(connectTimeout, "Connect timeout"));
+            return this;
+        }
+
+        /**
+         * Set the default timeout for reading from a connection. By default,
+         * the read timeout is one hour
+         *
+         * @param readTimeout Read timeout, or {@link Duration#ZERO} to wait indefinitely
+         * @return Builder instance
+         */
+        public @NotNull Builder withReadTimeout(@NotNull final Duration readTimeout) {
+            this.settings.setReadTimeout(toSocketTimeout(readTimeout, "Read timeout"));
+            return this;
+        }
+
+        /**
+         * Set the default total deadline of requests. Once it expires, the request is
+         * aborted and fails with a {@link java.net.SocketTimeoutException}. For streamed
+         * responses, the deadline covers the exchange until the response headers have been
+         * read. By default, requests have no deadline
+         *
+         * @param timeout Total timeout, or {@link Duration#ZERO} for no deadline
+         * @return Builder instance
+         */
+        public @NotNull Builder withTimeout(@NotNull final Duration timeout) {
+            this.settings.setTimeout(toMillis(timeout, "Timeout"));
+            return this;
+        }
+
+        /**
+         * Set the executor that runs requests made using
+         * {@link WrappedRequestBuilder#executeAsync()}. By default, a shared
+         * pool of daemon threads is used
+         *
+         * @param executor Executor
+         * @return Builder instance
+         */
+        public @NotNull Builder withExecutor(@NotNull final Executor executor) {
+            this.settings.setExecutor(Objects.requireNonNull(executor, "Executor may not be null"));
+            return this;
+        }
+
+        /**
+         * Run requests made using {@link WrappedRequestBuilder#executeAsync()} on
+         * virtual threads, rather than on an executor. This requires Java 21 or newer
+         *
+         * @return Builder instance
+         * @throws UnsupportedOperationException If the runtime does not support virtual threads
+         */
+        public @NotNull Builder withVirtualThreads() {
+            this.settings.setExecutor(VirtualThreads.executor());
+            return this;
+        }
+
         /**
          * Add a new request decorator. This will have the opportunity
          * to decorate every request made by this client
@@ -233,6 +389,10 @@ public final class HttpClient {
                 throw new RuntimeException(e);
             }
             this.builder.withMethod(method);
+            this.builder.withEngine(HttpClient.this.settings.getEngine());
+            this.builder.withConnectTimeout(HttpClient.this.settings.getConnectTimeout());
+            this.builder.withReadTimeout(HttpClient.this.settings.getReadTimeout());
+            this.builder.withTimeout(HttpClient.this.settings.getTimeout());
             /*if (HttpClient.this.mapper != null) {
                 builder.withMapper(HttpClient.this.mapper);
             } else */if (HttpClient.this.settings.getEntityMapper() != null) {
@@ -277,6 +437,94 @@ public final class HttpClient {
             return this;
         }
 
+        /**
+         * Add a header to the request
+         *
+         * @param key   Header key
+         * @param value Header value
+         * @return Builder instance
+         */
+        public @NotNull WrappedRequestBuilder withHeader(@NotNull final HeaderName key,
+                                                         @NotNull final String value) {
+            this.builder.withHeader(key, value);
+            return this;
+        }
+
+        /**
+         * Override the timeout for establishing a connection. Not every engine supports
+         * this per request, see {@link HttpEngine#jdk()}
+         *
+         * @param connectTimeout Connect timeout, or {@link Duration#ZERO} to wait indefinitely
+         * @return Builder instance
+         * @see Builder#withConnectTimeout(Duration)
+         */
+        public @NotNull WrappedRequestBuilder withConnectTimeout(@NotNull final Duration connectTimeout) {
+            this.builder.withConnectTimeout(toSocketTimeout(connectTimeout, "Connect timeout"));
+            return this;
+        }
+
+        /**
+         * Override the timeout for reading from the connection
+         *
+         * @param readTimeout Read timeout, or {@link Duration#ZERO} to wait indefinitely
+         * @return Builder instance
+         * @see Builder#withReadTimeout(Duration)
+         */
+        public @NotNull WrappedRequestBuilder withReadTimeout(@NotNull final Duration readTimeout) {
+            this.builder.withReadTimeout(toSocketTimeout(readTimeout, "Read timeout"));
+            return this;
+        }
+
+        /**
+         * Override the total deadline of the request
+         *
+         * @param timeout Total timeout, or {@link Duration#ZERO} for no deadline
+         * @return Builder instance
+         * @see Builder#withTimeout(Duration)
+         */
+        public @NotNull WrappedRequestBuilder withTimeout(@NotNull final Duration timeout) {
+            this.builder.withTimeout(toMillis(timeout, "Timeout"));
+            return this;
+        }
+
+        /**
+         * Send an Accept header listing the content types that the entity mapper can
+         * decode into a type, so that the server can pick a representation that
+         * {@link HttpResponse#getResponseEntity(Type)} understands. This has no effect
+         * if an Accept header is added explicitly
+         *
+         * @param type Response entity type
+         * @return Builder instance
+         */
+        public @NotNull WrappedRequestBuilder withAccept(@NotNull final Type type) {
+            this.builder.withAccept(type);
+            return this;
+        }
+
+        /**
+         * Send an Accept header listing the content types that the entity mapper can
+         * decode into a parameterized type, see {@link #withAccept(Type)}
+         *
+         * @param type Response entity type reference
+         * @return Builder instance
+         */
+        public @NotNull WrappedRequestBuilder withAccept(@NotNull final TypeReference<?> type) {
+            this.builder.withAccept(type.getType());
+            return this;
+        }
+
+        /**
+         * Stream the response body from the connection, rather than reading it into memory.
+         * The body can then be read using {@link HttpResponse#getBodyStream()}, and the
+         * response must be {@link HttpResponse#close() closed} once it has been consumed
+         *
+         * @return Builder instance
+         */
+        public @NotNull WrappedRequestBuilder withStreamingResponse() {
+            this.builder.withStreaming(true);
+            return this;
+        }
+
         /**
          * Add a consumer that acts on a specific status code
          *
@@ -326,12 +574,13 @@ public final class HttpClient {
             for (final Consumer<WrappedRequestBuilder> decorator : HttpClient.this.settings.getRequestDecorators()) {
                 decorator.accept(this);
             }
+            HttpResponse response = null;
             try {
                 final Throwable[] throwables = new Throwable[1];
                 if (this.exceptionHandler == null) {
                     this.builder.onException(e -> throwables[0] = e);
                 }
-                final HttpResponse response = this.builder.build().executeRequest();
+                response = this.builder.build().executeRequest();
                 if (response != null) {
                     final Consumer<HttpResponse> responseConsumer = this.consumers.getOrDefault(response.getStatusCode(), this.other);
                     responseConsumer.accept(response);
@@ -345,6 +594,14 @@ public final class HttpClient {
                     return response;
                 }
             } catch (final Exception e) {
+                if (response != null) {
+                    // Nobody else will be able to release a streamed body
+                    try {
+                        response.close();
+                    } catch (final IOException closeException) {
+                        e.addSuppressed(closeException);
+                    }
+                }
                 if (this.exceptionHandler == null) {
                     if (e instanceof RuntimeException) {
                         throw ((RuntimeException) e);
@@ -354,5 +611,19 @@ public final class HttpClient {
             }
             return null;
         }
+
+        /**
+         * Perform the request on the executor of the client. The status and
+         * exception consumers are invoked on the executor, once the request
+         * has completed
+         *
+         * @return Future that completes with the raw response, or with {@code null}
+         * if an exception was handled. If no exception consumer has been added,
+         * the future completes exceptionally instead
+         * @see #execute()
+         */
+        public @NotNull CompletableFuture<HttpResponse> executeAsync() {
+            return CompletableFuture.supplyAsync(this::execute, HttpClient.this.settings.getExecutor());
+        }
     }
 }
@@ -0,0 +1,141 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Engine responsible for performing the I/O of a request. The engine used by
+ * a client is selected using {@link HttpClient.Builder#withEngine(HttpEngine)}.
+ * Engines are owned by the application, which should close them once they are
+ * no longer used
+ */
+public abstract class HttpEngine implements Closeable {
+
+    /**
+     * Create a new engine. Applications may implement their own engines, such
+     * as an in-memory engine for tests, by overriding {@link #execute(HttpRequest)}
+     */
+    protected HttpEngine() {
+    }
+
+    /**
+     * Get an engine backed by {@link java.net.HttpURLConnection}. This is
+     * the engine used by default
+     *
+     * @return Engine instance
+     */
+    public static @NotNull HttpEngine urlConnection() {
+        return new URLConnectionEngine();
+    }
+
+    /**
+     * Get an engine backed by the {@code java.net.http} client, which negotiates HTTP/2
+     * where possible, so that concurrent requests to the same host share a single connection.
+     * Request bodies are serialized into memory before they are sent, and the connect timeout can
+     * only be configured for the client, not per request. This requires Java 11 or newer
+     *
+     * @return Engine instance
+     * @throws UnsupportedOperationException If the runtime does not provide {@code java.net.http}
+     */
+    public static @NotNull HttpEngine jdk() {
+        return new JdkHttpEngine();
+    }
+
+    /**
+     * Get a dependency free engine that speaks HTTP/1.1 over non-blocking socket channels, and
+     * keeps its own pool of persistent connections per host. Connections are only pooled when
+     * {@link HttpClient.Builder#withConnectionReuse(boolean) connection reuse} is enabled, within
+     * the configured limits. Requests that do not use plain {@code http} are sent using
+     * {@link #urlConnection()}
+     *
+     * @return Engine instance
+     */
+    public static @NotNull HttpEngine nio() {
+        return new NioHttpEngine();
+    }
+
+    /**
+     * Set a system property, unless the application has already set it. This
+     * is used to configure JDK internals that can not be configured otherwise
+     *
+     * @param key   Property key
+     * @param value Property value
+     */
+    static void setPropertyIfAbsent(@NotNull final String key, @NotNull final String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Close a response that will not be returned to the caller
+     *
+     * @param response Response to close
+     * @return Exception thrown while closing the response, if any
+     */
+    static @Nullable IOException close(@NotNull final HttpResponse response) {
+        try {
+            response.close();
+            return null;
+        } catch (final IOException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Apply the settings of the client that uses the engine. This is
+     * called once, when the client is built. Only the built-in engines use these settings
+     *
+     * @param settings Client settings
+     */
+    void configure(@NotNull final ClientSettings settings) {
+    }
+
+    /**
+     * Close the engine, and any connections it keeps idle. Connections that are in
+     * use are closed once they are released. By default, this does nothing
+     *
+     * @throws IOException If the engine could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Send a request and read the response. The response is created using {@link HttpResponse#builder()},
+     * with the {@link HttpRequest#getMapper() mapper of the request}. If the request
+     * {@link HttpRequest#isStreaming() is streaming}, the body should be supplied as a stream
+     *
+     * @param request Request to send
+     * @return The response
+     * @throws IOException If the request could not be sent, or the response could not be read
+     */
+    public abstract @NotNull HttpResponse execute(@NotNull HttpRequest request) throws IOException;
+
+}
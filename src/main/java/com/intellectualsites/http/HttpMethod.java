@@ -27,7 +27,7 @@ package com.intellectualsites.http;
 /**
  * HTTP methods
  */
-enum HttpMethod {
+public enum HttpMethod {
 
     /**
      * Post requests are used to handle data
@@ -74,7 +74,7 @@ enum HttpMethod {
      *
      * @return Whether a response entity should be expected
      */
-    boolean hasBody() {
+    public boolean hasBody() {
         return this.hasBody;
     }
 
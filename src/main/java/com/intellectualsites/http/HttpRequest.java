@@ -24,44 +24,49 @@
  */
 package com.intellectualsites.http;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.lang.reflect.Type;
 import java.net.URL;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.StringJoiner;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
- * HTTP request class. This should not be interacted with directly,
- * rather {@link com.intellectualsites.http.HttpClient} should be used
+ * HTTP request class. Requests are created by {@link com.intellectualsites.http.HttpClient},
+ * and exposed to {@link HttpEngine engines}, which send them
  */
-final class HttpRequest {
-
-    private static final int READ_TIMEOUT = 3600000;
+public final class HttpRequest {
 
     @NotNull private final HttpMethod method;
     @NotNull private final URL url;
     @NotNull private final Headers headers;
     @NotNull private final EntityMapper mapper;
+    @NotNull private final HttpEngine engine;
     @Nullable private final Supplier<Object> inputSupplier;
+    private final boolean streaming;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long timeout;
     private final @NotNull Consumer<? super Throwable> throwableConsumer;
 
     private HttpRequest(@NotNull final HttpMethod method, @NotNull final URL url, @NotNull final Headers headers,
                         @Nullable final Supplier<Object> inputSupplier, @NotNull final EntityMapper mapper,
+                        @NotNull final HttpEngine engine, final boolean streaming,
+                        final int connectTimeout, final int readTimeout, final long timeout,
                         final @NotNull Consumer<? super Throwable> throwableConsumer) {
         this.method = method;
         this.url = url;
         this.headers = headers;
         this.inputSupplier = inputSupplier;
         this.mapper = mapper;
+        this.engine = engine;
+        this.streaming = streaming;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.timeout = timeout;
         this.throwableConsumer = throwableConsumer;
     }
 
@@ -74,104 +79,116 @@ final class HttpRequest {
         return new Builder();
     }
 
-    @Nullable HttpResponse executeRequest() throws IOException {
-        final HttpURLConnection httpURLConnection = (HttpURLConnection) this.url.openConnection();
+    /**
+     * Send the request using the configured {@link HttpEngine}
+     *
+     * @return The response, or {@code null} if an exception was handled
+     */
+    @Nullable HttpResponse executeRequest() {
         try {
-            httpURLConnection.setRequestMethod(this.method.name());
-            httpURLConnection.setDoOutput(this.method.hasBody());
-            httpURLConnection.setUseCaches(false);
-            httpURLConnection.setReadTimeout(READ_TIMEOUT);
-            for (final String headerName : this.headers.getHeaders()) {
-                final List<String> headers = this.headers.getHeaders(headerName);
-                if (headers.size() == 1) {
-                    httpURLConnection.addRequestProperty(headerName, headers.get(0));
-                } else if (headers.size() > 1) {
-                    final StringBuilder headerBuilder = new StringBuilder();
-                    final Iterator<String> headerIterator = headers.iterator();
-                    while (headerIterator.hasNext()) {
-                        headerBuilder.append(headerIterator.next());
-                        if (headerIterator.hasNext()) {
-                            headerBuilder.append(',');
-                        }
-                    }
-                    httpURLConnection.addRequestProperty(headerName, headerBuilder.toString());
-                }
-            }
-            httpURLConnection.setDoInput(true);
-            httpURLConnection.setDoOutput(this.inputSupplier != null);
-            if (this.inputSupplier != null) {
-                final Object object = this.inputSupplier.get();
-                if (object != null) {
-                    final EntityMapper.EntitySerializer serializer =
-                            this.mapper.getSerializer(object.getClass()).orElseThrow(() -> new IllegalArgumentException(String
-                                    .format("There is no registered serializer for type '%s'",
-                                            object.getClass().getCanonicalName())));
-                    if (this.headers.getHeader("Content-Type").isEmpty()) {
-                        httpURLConnection.setRequestProperty("Content-Type", serializer.getContentType().toString());
-                    }
-                    final byte[] bytes = serializer.serialize(object);
-                    httpURLConnection.setRequestProperty("Content-Length", Integer.toString(bytes.length));
-                    try (final DataOutputStream dataOutputStream = new DataOutputStream(
-                            httpURLConnection.getOutputStream())) {
-                        dataOutputStream.write(bytes);
-                        dataOutputStream.flush();
-                    }
-                }
-            }
-            httpURLConnection.connect();
-
-            final InputStream stream;
-            if (this.method.hasBody()) {
-                if (httpURLConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                    stream = httpURLConnection.getErrorStream();
-                } else {
-                    stream = httpURLConnection.getInputStream();
-                }
-            } else {
-                stream = null;
-            }
-
-            final HttpResponse.Builder builder = HttpResponse.builder()
-                    .withStatus(httpURLConnection.getResponseCode())
-                    .withStatusMessage(httpURLConnection.getResponseMessage())
-                    .withEntityMapper(this.mapper);
-            for (final Map.Entry<String, List<String>> entry : httpURLConnection.getHeaderFields().entrySet()) {
-                if (entry.getKey() == null) {
-                    continue;
-                }
-                for (final String header : entry.getValue()) {
-                    builder.withHeader(entry.getKey(), header);
-                }
-            }
-
-            if (stream != null) {
-                try (final InputStream copy = stream; final ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-                    int b;
-                    while ((b = stream.read()) != -1) {
-                        bos.write(b);
-                    }
-                    builder.withBody(bos.toByteArray());
-                }
-            }
-
-            return builder.build();
+            return this.engine.execute(this);
         } catch (final Throwable throwable) {
             this.throwableConsumer.accept(throwable);
-        } finally {
-            if (httpURLConnection != null) {
-                httpURLConnection.disconnect();
-            }
         }
         return null;
     }
 
+    /**
+     * Get the HTTP method used in the request
+     *
+     * @return HTTP method
+     */
+    public @NotNull HttpMethod getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Get the URL the request is sent to
+     *
+     * @return URL
+     */
+    public @NotNull URL getURL() {
+        return this.url;
+    }
+
+    /**
+     * Get the request headers
+     *
+     * @return Request headers
+     */
+    public @NotNull Headers getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * Get the entity mapper used by the request
+     *
+     * @return Entity mapper
+     */
+    public @NotNull EntityMapper getMapper() {
+        return this.mapper;
+    }
+
+    /**
+     * Get the supplier of the request entity, if any. The entity is serialized
+     * using the serializer that the {@link #getMapper() mapper} provides for its type
+     *
+     * @return Input supplier
+     */
+    public @Nullable Supplier<Object> getInputSupplier() {
+        return this.inputSupplier;
+    }
+
+    /**
+     * Whether the response body should be streamed from the connection,
+     * rather than being read into memory
+     *
+     * @return Whether the response is streamed
+     */
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * Get the timeout for establishing a connection
+     *
+     * @return Connect timeout in milliseconds, or {@code 0} if there is none
+     */
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * Get the timeout for reading from the connection
+     *
+     * @return Read timeout in milliseconds, or {@code 0} if there is none
+     */
+    public int getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    /**
+     * Get the total deadline of the request, after which it is aborted
+     *
+     * @return Timeout in milliseconds, or {@code 0} if there is none
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+
     static final class Builder {
 
         private final Headers headers = Headers.newInstance();
         private EntityMapper mapper;
+        private HttpEngine engine;
         private HttpMethod method;
         private URL url;
         private Supplier<Object> inputSupplier;
+        private Type acceptType;
+        private boolean streaming;
+        private int connectTimeout;
+        private int readTimeout;
+        private long timeout;
         private Consumer<Throwable> throwableConsumer = Throwable::printStackTrace;
 
         private Builder() {
@@ -188,6 +205,17 @@ final class HttpRequest {
             return this;
         }
 
+        /**
+         * Specify the engine that sends the request
+         *
+         * @param engine Engine
+         * @return Builder instance
+         */
+        @NotNull Builder withEngine(@NotNull final HttpEngine engine) {
+            this.engine = Objects.requireNonNull(engine, "Engine may not be null");
+            return this;
+        }
+
         /**
          * Specify the HTTP method used in the request
          *
@@ -222,6 +250,18 @@ final class HttpRequest {
             return this;
         }
 
+        /**
+         * Add a header to the request
+         *
+         * @param key   Header key
+         * @param value Header value
+         * @return Builder instance
+         */
+        @NotNull Builder withHeader(@NotNull final HeaderName key, @NotNull final String value) {
+            this.headers.addHeader(Objects.requireNonNull(key, "Key may not be null"), Objects.requireNonNull(value, "Value may not be null"));
+            return this;
+        }
+
         /**
          * Add an input entity to the request
          *
@@ -233,6 +273,63 @@ final class HttpRequest {
             return this;
         }
 
+        /**
+         * Specify the type that the response is decoded into. The content types that the
+         * mapper can decode into the type are sent in the Accept header, unless the
+         * header is set explicitly
+         *
+         * @param acceptType Response entity type
+         * @return Builder instance
+         */
+        @NotNull Builder withAccept(@NotNull final Type acceptType) {
+            this.acceptType = Objects.requireNonNull(acceptType, "Type may not be null");
+            return this;
+        }
+
+        /**
+         * Specify whether the response body should be streamed from the connection
+         *
+         * @param streaming Whether the response is streamed
+         * @return Builder instance
+         */
+        @NotNull Builder withStreaming(final boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        /**
+         * Specify the timeout for establishing a connection
+         *
+         * @param connectTimeout Connect timeout in milliseconds, or {@code 0} if there is none
+         * @return Builder instance
+         */
+        @NotNull Builder withConnectTimeout(final int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Specify the timeout for reading from the connection
+         *
+         * @param readTimeout Read timeout in milliseconds, or {@code 0} if there is none
+         * @return Builder instance
+         */
+        @NotNull Builder withReadTimeout(final int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * Specify the total deadline of the request
+         *
+         * @param timeout Timeout in milliseconds, or {@code 0} if there is none
+         * @return Builder instance
+         */
+        @NotNull Builder withTimeout(final long timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
         /**
          * Add a throwable consumer
          *
@@ -248,9 +345,21 @@ final class HttpRequest {
             Objects.requireNonNull(this.method, "No method was supplied");
             Objects.requireNonNull(this.url, "No URL was supplied");
             Objects.requireNonNull(this.mapper, "No mapper was supplied");
+            Objects.requireNonNull(this.engine, "No engine was supplied");
             Objects.requireNonNull(this.throwableConsumer, "No throwable consumer was supplied");
+            if (this.acceptType != null && this.headers.getOrDefault(HeaderName.ACCEPT, null) == null) {
+                final List<ContentType> contentTypes = this.mapper.getAcceptedContentTypes(this.acceptType);
+                if (!contentTypes.isEmpty()) {
+                    final StringJoiner accept = new StringJoiner(", ");
+                    for (final ContentType contentType : contentTypes) {
+                        accept.add(contentType.getMediaType());
+                    }
+                    this.headers.addHeader(HeaderName.ACCEPT, accept.toString());
+                }
+            }
             return new HttpRequest(this.method, this.url, this.headers,
-                    this.inputSupplier, this.mapper, this.throwableConsumer);
+                    this.inputSupplier, this.mapper, this.engine, this.streaming,
+                    this.connectTimeout, this.readTimeout, this.timeout, this.throwableConsumer);
         }
     }
 }
@@ -24,38 +24,68 @@
  */
 package com.intellectualsites.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
- * A HTTP response
+ * A HTTP response. If the response was requested with
+ * {@link HttpClient.WrappedRequestBuilder#withStreamingResponse()}, the
+ * body is read straight from the connection, and the response must be
+ * {@link #close() closed} to release the connection
  */
-public final class HttpResponse {
+public final class HttpResponse implements Closeable {
 
-    private final Headers headers;
+    // Placeholder for deserializers that produce null, which the entity cache can not hold
+    private static final Object NULL_ENTITY = new Object();
+
+    private final Supplier<Headers> headerSupplier;
+    private volatile Headers headers;
     private final EntityMapper entityMapper;
     private final int code;
     private final String status;
-    private final byte[] body;
+    private final ConcurrentMap<Type, Object> entities = new ConcurrentHashMap<>();
+    // Not a monitor, as virtual threads reading the body would pin their carrier thread
+    private final Lock bodyLock = new ReentrantLock();
+    private byte[] body;
+    private InputStream bodyStream;
 
     private HttpResponse(final int code,
                          @NotNull final String status,
-                         @NotNull final Headers headers,
+                         @Nullable final Headers headers,
+                         @Nullable final Supplier<Headers> headerSupplier,
                          @NotNull final EntityMapper entityMapper,
-                         final byte @NotNull [] body) {
+                         final byte @NotNull [] body,
+                         @Nullable final InputStream bodyStream) {
         this.status = status;
         this.code = code;
         this.headers = headers;
+        this.headerSupplier = headerSupplier;
         this.entityMapper = entityMapper;
-        this.body = body;
+        this.body = bodyStream == null ? body : null;
+        this.bodyStream = bodyStream;
     }
 
     /**
-     * Create a new builder instance
+     * Create a new builder instance. This is used by {@link HttpEngine engines}
+     * to create the responses they read
      *
      * @return Builder instance
      */
-    static @NotNull Builder builder() {
+    public static @NotNull Builder builder() {
         return new Builder();
     }
 
@@ -78,21 +108,133 @@ public final class HttpResponse {
     }
 
     /**
-     * Get the raw response body
+     * Get the raw response body. If the response is streamed, the
+     * remainder of the body stream is read and the stream is closed
      *
      * @return Response body
+     * @throws UncheckedIOException If the body stream could not be read
+     * @throws IllegalStateException If the body stream has been consumed by a streaming deserializer
      */
     public byte @NotNull [] getRawResponse() {
-        return this.body;
+        this.bodyLock.lock();
+        try {
+            if (this.body == null) {
+                this.checkNotConsumed();
+                try (final InputStream stream = this.bodyStream) {
+                    this.body = Streams.readFully(stream, -1);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                this.bodyStream = null;
+            }
+            return this.body;
+        } finally {
+            this.bodyLock.unlock();
+        }
+    }
+
+    /**
+     * Whether the response body is streamed from the connection,
+     * and has not yet been read into memory
+     *
+     * @return Whether the body is streamed
+     */
+    public boolean isStreaming() {
+        this.bodyLock.lock();
+        try {
+            return this.bodyStream != null;
+        } finally {
+            this.bodyLock.unlock();
+        }
+    }
+
+    /**
+     * Get the response body as a stream. If the response is streamed, this is the stream
+     * of the underlying connection, and it can only be read once. Closing the stream
+     * releases the connection
+     *
+     * @return Response body stream
+     * @throws IllegalStateException If the body stream has been consumed by a streaming deserializer
+     */
+    public @NotNull InputStream getBodyStream() {
+        this.bodyLock.lock();
+        try {
+            if (this.bodyStream != null) {
+                return this.bodyStream;
+            }
+            this.checkNotConsumed();
+            return new ByteArrayInputStream(this.body);
+        } finally {
+            this.bodyLock.unlock();
+        }
+    }
+
+    /**
+     * Take the body stream, if the response is streamed, so that it can be
+     * handed to a streaming deserializer. The body can not be read again afterwards
+     *
+     * @return Body stream, or {@code null} if the body has been read into memory
+     */
+    private @Nullable InputStream takeBodyStream() {
+        this.bodyLock.lock();
+        try {
+            final InputStream stream = this.bodyStream;
+            this.bodyStream = null;
+            return stream;
+        } finally {
+            this.bodyLock.unlock();
+        }
+    }
+
+    private void checkNotConsumed() {
+        if (this.body == null && this.bodyStream == null) {
+            throw new IllegalStateException("The response body has already been consumed");
+        }
+    }
+
+    /**
+     * Get the response body as a channel. See {@link #getBodyStream()}
+     *
+     * @return Response body channel
+     */
+    public @NotNull ReadableByteChannel getBodyChannel() {
+        return Channels.newChannel(this.getBodyStream());
     }
 
     /**
-     * Get the response headers
+     * Close the body stream, if the response is streamed, and release
+     * the underlying connection. This has no effect if the body has
+     * already been read into memory
+     *
+     * @throws IOException If the stream could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        final InputStream stream;
+        this.bodyLock.lock();
+        try {
+            stream = this.bodyStream;
+        } finally {
+            this.bodyLock.unlock();
+        }
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    /**
+     * Get the response headers. These are copied from the
+     * connection the first time they are accessed
      *
      * @return Response headers
      */
     public @NotNull Headers getHeaders() {
-        return this.headers;
+        Headers headers = this.headers;
+        if (headers == null) {
+            // Racing threads copy the same headers, so the last write winning is harmless
+            this.headers = headers = this.headerSupplier.get();
+        }
+        return headers;
     }
 
     /**
@@ -100,11 +242,46 @@ public final class HttpResponse {
      *
      * @param returnType Return type class
      * @param <T>        Return type
-     * @return Response
+     * @return Response entity, or {@code null} if the deserializer decoded the body to {@code null}
      * @throws IllegalArgumentException If no mapper exists for the type
      */
-    public @NotNull <T> T getResponseEntity(@NotNull final Class<T> returnType) {
-        final String contentTypeString = this.headers.getOrDefault("content-type", null);
+    public @Nullable <T> T getResponseEntity(@NotNull final Class<T> returnType) {
+        return this.getResponseEntity((Type) returnType);
+    }
+
+    /**
+     * Get the response entity and map it to a parameterized type, such as {@code List<String>}
+     *
+     * @param returnType Return type reference
+     * @param <T>        Return type
+     * @return Response entity, or {@code null} if the deserializer decoded the body to {@code null}
+     * @throws IllegalArgumentException If no mapper exists for the type
+     */
+    public @Nullable <T> T getResponseEntity(@NotNull final TypeReference<T> returnType) {
+        return this.getResponseEntity(returnType.getType());
+    }
+
+    /**
+     * Get the response entity and map it to a type, which may be parameterized. The
+     * deserializer is chosen based on the content type of the response, see
+     * {@link EntityMapper#getDeserializer(Type, ContentType)}. If the
+     * response is streamed and the deserializer is a
+     * {@link EntityMapper.StreamingEntityDeserializer streaming deserializer}, the entity is
+     * decoded straight from the connection, which is then released, and the body can not
+     * be read again. Decoded entities are cached per type, so repeated calls return the
+     * same instance without decoding the body again
+     *
+     * @param returnType Return type
+     * @param <T>        Return type
+     * @return Response entity, or {@code null} if the deserializer decoded the body to {@code null}
+     * @throws IllegalArgumentException If no mapper exists for the type
+     */
+    public @Nullable <T> T getResponseEntity(@NotNull final Type returnType) {
+        final Object entity = this.entities.get(returnType);
+        if (entity != null) {
+            return castEntity(entity);
+        }
+        final String contentTypeString = this.getHeaders().getOrDefault(HeaderName.CONTENT_TYPE, null);
         final ContentType contentType;
         if (contentTypeString != null) {
             contentType = ContentType.of(contentTypeString);
@@ -112,52 +289,167 @@ public final class HttpResponse {
             contentType = null;
         }
 
-        return this.entityMapper.getDeserializer(returnType).map(deserializer ->
-                        deserializer.deserialize(contentType, this.getRawResponse()))
+        final EntityMapper.EntityDeserializer<T> deserializer = this.entityMapper.<T>getDeserializer(returnType, contentType)
                 .orElseThrow(() -> new IllegalStateException(String.format("Could not deserialize response into type '%s'",
-                        returnType.getCanonicalName())));
+                        returnType.getTypeName())));
+        if (deserializer instanceof EntityMapper.StreamingEntityDeserializer) {
+            // Held while decoding, so that concurrent callers wait for the entity rather
+            // than finding the body stream consumed
+            this.bodyLock.lock();
+            try {
+                final Object decoded = this.entities.get(returnType);
+                if (decoded != null) {
+                    return castEntity(decoded);
+                }
+                final InputStream bodyStream = this.takeBodyStream();
+                if (bodyStream != null) {
+                    try (final InputStream stream = bodyStream) {
+                        return this.cacheEntity(returnType,
+                                ((EntityMapper.StreamingEntityDeserializer<T>) deserializer).deserialize(contentType, stream));
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            } finally {
+                this.bodyLock.unlock();
+            }
+        }
+        return this.cacheEntity(returnType, deserializer.deserialize(contentType, this.getRawResponse()));
     }
 
-    static class Builder {
+    /**
+     * Drop the raw response body, so that it can be garbage collected once the
+     * entities have been decoded. Entities that have already been decoded remain
+     * available, but the body can not be read again. If the response is streamed,
+     * the body stream is closed and the connection released
+     *
+     * @throws IOException If the body stream could not be closed
+     */
+    public void releaseRawResponse() throws IOException {
+        final InputStream stream;
+        this.bodyLock.lock();
+        try {
+            stream = this.takeBodyStream();
+            this.body = null;
+        } finally {
+            this.bodyLock.unlock();
+        }
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private <T> T cacheEntity(@NotNull final Type type, @Nullable final T entity) {
+        // Racing threads may both decode the entity, in which case the first one is kept
+        final Object previous = this.entities.putIfAbsent(type, entity == null ? NULL_ENTITY : entity);
+        return previous == null ? entity : castEntity(previous);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T castEntity(@NotNull final Object entity) {
+        return entity == NULL_ENTITY ? null : (T) entity;
+    }
+
+    /**
+     * Builder for {@link HttpResponse responses}
+     */
+    public static final class Builder {
 
         private final Headers headers = Headers.newInstance();
+        private Supplier<Headers> headerSupplier;
         private int status;
         private String statusMessage;
         private EntityMapper entityMapper;
         private byte[] bytes = new byte[0];
+        private InputStream bodyStream;
 
         private Builder() {
         }
 
-        @NotNull Builder withStatus(final int status) {
+        /**
+         * Set the status code of the response
+         *
+         * @param status Status code
+         * @return Builder instance
+         */
+        public @NotNull Builder withStatus(final int status) {
             this.status = status;
             return this;
         }
 
-        @NotNull Builder withStatusMessage(@NotNull final String statusMessage) {
+        /**
+         * Set the status message of the response
+         *
+         * @param statusMessage Status message
+         * @return Builder instance
+         */
+        public @NotNull Builder withStatusMessage(@NotNull final String statusMessage) {
             this.statusMessage = statusMessage;
             return this;
         }
 
-        @NotNull Builder withHeader(@NotNull final String key, @NotNull final String value) {
+        /**
+         * Add a response header
+         *
+         * @param key   Header name
+         * @param value Header value
+         * @return Builder instance
+         */
+        public @NotNull Builder withHeader(@NotNull final String key, @NotNull final String value) {
             this.headers.addHeader(Objects.requireNonNull(key, "Key may not be null"),
                     Objects.requireNonNull(value, "Value may not be null"));
             return this;
         }
 
-        @NotNull Builder withEntityMapper(@NotNull final EntityMapper entityMapper) {
+        @NotNull Builder withHeaders(@NotNull final Supplier<Headers> headerSupplier) {
+            this.headerSupplier = Objects.requireNonNull(headerSupplier, "Supplier may not be null");
+            return this;
+        }
+
+        /**
+         * Set the mapper that deserializes the response entity. This should
+         * be the {@link HttpRequest#getMapper() mapper of the request}
+         *
+         * @param entityMapper Entity mapper
+         * @return Builder instance
+         */
+        public @NotNull Builder withEntityMapper(@NotNull final EntityMapper entityMapper) {
             this.entityMapper = Objects.requireNonNull(entityMapper, "Mapper may not be null");
             return this;
         }
 
-        @NotNull Builder withBody(final byte @NotNull [] bytes) {
+        /**
+         * Set the body of the response, which has been read into memory
+         *
+         * @param bytes Response body
+         * @return Builder instance
+         */
+        public @NotNull Builder withBody(final byte @NotNull [] bytes) {
             this.bytes = Objects.requireNonNull(bytes, "Bytes may not be null");
             return this;
         }
 
-        @NotNull HttpResponse build() {
+        /**
+         * Set the stream the body of the response is read from. The stream
+         * is closed when the response is {@link HttpResponse#close() closed}
+         *
+         * @param bodyStream Response body stream
+         * @return Builder instance
+         */
+        public @NotNull Builder withBodyStream(@NotNull final InputStream bodyStream) {
+            this.bodyStream = Objects.requireNonNull(bodyStream, "Stream may not be null");
+            return this;
+        }
+
+        /**
+         * Create the response
+         *
+         * @return Response
+         */
+        public @NotNull HttpResponse build() {
             return new HttpResponse(this.status, this.statusMessage,
-                    this.headers, this.entityMapper, this.bytes);
+                    this.headerSupplier == null ? this.headers : null, this.headerSupplier,
+                    this.entityMapper, this.bytes, this.bodyStream);
         }
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * {@link HttpEngine} backed by {@code java.net.http}. This is replaced by
+ * a working implementation in the Java 11 release of the multi-release jar
+ */
+final class JdkHttpEngine extends HttpEngine {
+
+    JdkHttpEngine() {
+        throw new UnsupportedOperationException("The java.net.http engine requires Java 11 or newer");
+    }
+
+    @Override
+    public @NotNull HttpResponse execute(@NotNull final HttpRequest request) {
+        throw new UnsupportedOperationException("The java.net.http engine requires Java 11 or newer");
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Built-in {@link EntityMapper mappers} for JSON, which need no third party libraries.
+ * Entities are streamed from and to the connection, and may be strings, numbers,
+ * booleans, enums, arrays, collections, maps with scalar keys, and simple objects,
+ * which are mapped through their non-static, non-transient fields. Objects that
+ * are read must have a constructor without parameters. Null fields are not written
+ */
+public final class JsonMapper {
+
+    private static final JsonSerializer<?> SERIALIZER = new JsonSerializer<>();
+    private static final ConcurrentMap<Type, JsonDeserializer<?>> DESERIALIZERS = new ConcurrentHashMap<>();
+    private static final EntityMapper.EntityCodecFactory FALLBACK = new JsonCodecFactory();
+
+    private JsonMapper() {
+    }
+
+    /**
+     * Get a serializer for a type
+     *
+     * @param clazz Input class
+     * @param <T>   Input type
+     * @return Serializer for the input type
+     */
+    @SuppressWarnings("unchecked")
+    public static @NotNull <T> EntityMapper.StreamingEntitySerializer<T> serializer(@NotNull final Class<T> clazz) {
+        Objects.requireNonNull(clazz, "Class may not be null");
+        return (EntityMapper.StreamingEntitySerializer<T>) SERIALIZER;
+    }
+
+    /**
+     * Get a deserializer for a type
+     *
+     * @param clazz Output class
+     * @param <T>   Output type
+     * @return Deserializer for the output type
+     */
+    public static @NotNull <T> EntityMapper.StreamingEntityDeserializer<T> deserializer(@NotNull final Class<T> clazz) {
+        return deserializer((Type) clazz);
+    }
+
+    /**
+     * Get a deserializer for a parameterized type, such as {@code List<String>}
+     *
+     * @param type Output type reference
+     * @param <T>  Output type
+     * @return Deserializer for the output type
+     */
+    public static @NotNull <T> EntityMapper.StreamingEntityDeserializer<T> deserializer(
+            @NotNull final TypeReference<T> type) {
+        return deserializer(type.getType());
+    }
+
+    /**
+     * Get a deserializer for a type, which may be parameterized
+     *
+     * @param type Output type
+     * @param <T>  Output type
+     * @return Deserializer for the output type
+     */
+    @SuppressWarnings("unchecked")
+    public static @NotNull <T> EntityMapper.StreamingEntityDeserializer<T> deserializer(@NotNull final Type type) {
+        Objects.requireNonNull(type, "Type may not be null");
+        return (EntityMapper.StreamingEntityDeserializer<T>) DESERIALIZERS.computeIfAbsent(type, JsonDeserializer::new);
+    }
+
+    /**
+     * Get a codec factory that handles every type without a registered codec,
+     * see {@link EntityMapper#registerFallback(EntityMapper.EntityCodecFactory)}
+     *
+     * @return Codec factory
+     */
+    public static @NotNull EntityMapper.EntityCodecFactory fallback() {
+        return FALLBACK;
+    }
+
+
+    /**
+     * Fields of an object type, resolved once per class
+     */
+    static final class Binding {
+
+        private static final ClassValue<Binding> BINDINGS = new ClassValue<Binding>() {
+            @Override
+            protected Binding computeValue(final Class<?> type) {
+                return new Binding(type);
+            }
+        };
+
+        private final Class<?> type;
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final Map<String, Field> fieldsByName;
+
+        private Binding(@NotNull final Class<?> type) {
+            this.type = type;
+            final String name = type.getName();
+            if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || name.startsWith("java.")
+                    || name.startsWith("javax.")) {
+                throw new IllegalArgumentException(String.format("Type '%s' can not be mapped to JSON", name));
+            }
+            final List<Class<?>> hierarchy = new ArrayList<>();
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                hierarchy.add(current);
+            }
+            Collections.reverse(hierarchy);
+            final Map<String, Field> fieldsByName = new LinkedHashMap<>();
+            for (final Class<?> current : hierarchy) {
+                for (final Field field : current.getDeclaredFields()) {
+                    if ((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) != 0 || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fieldsByName.put(field.getName(), field);
+                }
+            }
+            Constructor<?> constructor;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (final NoSuchMethodException e) {
+                constructor = null;
+            }
+            this.constructor = constructor;
+            this.fields = fieldsByName.values().toArray(new Field[0]);
+            this.fieldsByName = fieldsByName;
+        }
+
+        static @NotNull Binding of(@NotNull final Class<?> type) {
+            return BINDINGS.get(type);
+        }
+
+        @NotNull Field[] getFields() {
+            return this.fields;
+        }
+
+        @Nullable Field getField(@NotNull final String name) {
+            return this.fieldsByName.get(name);
+        }
+
+        @NotNull Object newInstance() {
+            if (this.constructor == null) {
+                throw new IllegalArgumentException(String.format("Type '%s' has no constructor without parameters",
+                        this.type.getName()));
+            }
+            try {
+                return this.constructor.newInstance();
+            } catch (final ReflectiveOperationException e) {
+                throw new IllegalArgumentException(String.format("Could not create an instance of '%s'",
+                        this.type.getName()), e);
+            }
+        }
+
+    }
+
+
+    private static final class JsonSerializer<T> implements EntityMapper.StreamingEntitySerializer<T> {
+
+        @Override
+        public void serialize(@NotNull final T input, @NotNull final OutputStream outputStream) throws IOException {
+            final JsonWriter writer = new JsonWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            writer.writeValue(input);
+            writer.flush();
+        }
+
+        @Override
+        public ContentType getContentType() {
+            return ContentType.JSON;
+        }
+
+    }
+
+
+    private static final class JsonDeserializer<T> implements EntityMapper.StreamingEntityDeserializer<T> {
+
+        private final Type type;
+
+        private JsonDeserializer(@NotNull final Type type) {
+            this.type = type;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @NotNull T deserialize(@Nullable final ContentType contentType,
+                                      @NotNull final InputStream inputStream) throws IOException {
+            // JSON exchanged between systems must be UTF-8 encoded (RFC 8259)
+            final Charset charset = contentType == null ? StandardCharsets.UTF_8
+                    : contentType.getCharset(StandardCharsets.UTF_8);
+            final JsonReader reader = new JsonReader(new InputStreamReader(inputStream, charset));
+            final T value = (T) reader.readValue(this.type);
+            reader.endDocument();
+            return value;
+        }
+
+        @Override
+        public ContentType getContentType() {
+            return ContentType.JSON;
+        }
+
+    }
+
+
+    private static final class JsonCodecFactory implements EntityMapper.EntityCodecFactory {
+
+        @Override
+        public @NotNull <T> Optional<EntityMapper.EntitySerializer<T>> createSerializer(@NotNull final Class<T> clazz) {
+            return Optional.of(serializer(clazz));
+        }
+
+        @Override
+        public @NotNull <T> Optional<EntityMapper.EntityDeserializer<T>> createDeserializer(@NotNull final Type type) {
+            return Optional.of(deserializer(type));
+        }
+
+    }
+
+}
@@ -0,0 +1,654 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Streaming JSON reader used by {@link JsonMapper}. Values are bound to their
+ * target type while they are read, without building an intermediate tree.
+ * Malformed input is reported as an {@link IOException}
+ */
+final class JsonReader {
+
+    private static final int MAX_DEPTH = 512;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder builder = new StringBuilder();
+    private int position;
+    private int limit;
+    private long offset;
+    private int depth;
+
+    JsonReader(@NotNull final Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next value and bind it to a type. Objects read as {@link Object}
+     * become maps, arrays become lists and numbers become {@link Long longs},
+     * {@link BigInteger big integers} or {@link Double doubles}
+     *
+     * @param type Target type
+     * @return Read value
+     * @throws IOException              If the input could not be read or is malformed
+     * @throws IllegalArgumentException If the value can not be bound to the type
+     */
+    @Nullable Object readValue(@NotNull final Type type) throws IOException {
+        final Class<?> raw = rawType(type);
+        final int c = this.peek();
+        if (c == 'n') {
+            this.readLiteral("null");
+            if (raw.isPrimitive()) {
+                throw this.syntaxError("Expected a value of type " + raw.getName() + " but got null");
+            }
+            return null;
+        }
+        if (raw == Object.class) {
+            return this.readAny();
+        }
+        if (raw == String.class || raw == CharSequence.class) {
+            return this.readString();
+        }
+        if (raw == Boolean.class || raw == boolean.class) {
+            return this.readBoolean();
+        }
+        if (raw == Character.class || raw == char.class) {
+            final String string = this.readString();
+            if (string.length() != 1) {
+                throw this.syntaxError("Expected a single character but got \"" + string + '"');
+            }
+            return string.charAt(0);
+        }
+        if (Number.class.isAssignableFrom(raw) || (raw.isPrimitive() && raw != void.class)) {
+            return this.readNumber(raw);
+        }
+        if (raw.isEnum()) {
+            return this.readEnum(raw);
+        }
+        if (raw.isArray()) {
+            final Type componentType = type instanceof GenericArrayType
+                    ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+            final List<Object> elements = new ArrayList<>();
+            this.readArray(componentType, elements);
+            final Object array = Array.newInstance(rawType(componentType), elements.size());
+            for (int i = 0; i < elements.size(); i++) {
+                Array.set(array, i, elements.get(i));
+            }
+            return array;
+        }
+        if (Map.class.isAssignableFrom(raw)) {
+            return this.readMap(raw, typeArgument(type, 0), typeArgument(type, 1));
+        }
+        if (Collection.class.isAssignableFrom(raw) || raw == Iterable.class) {
+            final Collection<Object> collection = newCollection(raw);
+            this.readArray(typeArgument(type, 0), collection);
+            return collection;
+        }
+        return this.readObject(JsonMapper.Binding.of(raw));
+    }
+
+    /**
+     * Ensure that nothing but whitespace follows the last value
+     *
+     * @throws IOException If the input could not be read or has trailing content
+     */
+    void endDocument() throws IOException {
+        if (this.peek() != -1) {
+            throw this.syntaxError("Expected the end of the document");
+        }
+    }
+
+    private @Nullable Object readAny() throws IOException {
+        final int c = this.peek();
+        switch (c) {
+            case '{':
+                return this.readMap(Map.class, String.class, Object.class);
+            case '[': {
+                final List<Object> list = new ArrayList<>();
+                this.readArray(Object.class, list);
+                return list;
+            }
+            case '"':
+                return this.readString();
+            case 't':
+            case 'f':
+                return this.readBoolean();
+            case 'n':
+                this.readLiteral("null");
+                return null;
+            default:
+                return this.readNumber(Object.class);
+        }
+    }
+
+    private @NotNull Object readObject(@NotNull final JsonMapper.Binding binding) throws IOException {
+        final Object instance = binding.newInstance();
+        this.enter('{');
+        if (this.peek() == '}') {
+            this.position++;
+            this.depth--;
+            return instance;
+        }
+        do {
+            final String name = this.readName();
+            final Field field = binding.getField(name);
+            if (field == null) {
+                this.skipValue();
+                continue;
+            }
+            final Object value = this.readValue(field.getGenericType());
+            try {
+                field.set(instance, value);
+            } catch (final IllegalAccessException e) {
+                throw new IllegalArgumentException(String.format("Could not set field '%s'", field), e);
+            }
+        } while (this.readSeparator('}'));
+        this.depth--;
+        return instance;
+    }
+
+    private @NotNull Map<Object, Object> readMap(@NotNull final Class<?> raw, @NotNull final Type keyType,
+                                                 @NotNull final Type valueType) throws IOException {
+        final Map<Object, Object> map = newMap(raw);
+        this.enter('{');
+        if (this.peek() == '}') {
+            this.position++;
+            this.depth--;
+            return map;
+        }
+        do {
+            final Object key = this.convertKey(this.readName(), rawType(keyType));
+            map.put(key, this.readValue(valueType));
+        } while (this.readSeparator('}'));
+        this.depth--;
+        return map;
+    }
+
+    private void readArray(@NotNull final Type elementType, @NotNull final Collection<Object> elements)
+            throws IOException {
+        this.enter('[');
+        if (this.peek() == ']') {
+            this.position++;
+            this.depth--;
+            return;
+        }
+        do {
+            elements.add(this.readValue(elementType));
+        } while (this.readSeparator(']'));
+        this.depth--;
+    }
+
+    private void skipValue() throws IOException {
+        final int c = this.peek();
+        if (c == '{') {
+            this.enter('{');
+            if (this.peek() == '}') {
+                this.position++;
+            } else {
+                do {
+                    this.skipString();
+                    this.expect(':');
+                    this.skipValue();
+                } while (this.readSeparator('}'));
+            }
+            this.depth--;
+        } else if (c == '[') {
+            this.enter('[');
+            if (this.peek() == ']') {
+                this.position++;
+            } else {
+                do {
+                    this.skipValue();
+                } while (this.readSeparator(']'));
+            }
+            this.depth--;
+        } else if (c == '"') {
+            this.skipString();
+        } else {
+            this.readAny();
+        }
+    }
+
+    private @NotNull String readName() throws IOException {
+        final String name = this.readString();
+        this.expect(':');
+        return name;
+    }
+
+    /**
+     * Consume the separator between two elements, or the closing character
+     *
+     * @return Whether another element follows
+     */
+    private boolean readSeparator(final char close) throws IOException {
+        final int c = this.peek();
+        if (c == ',') {
+            this.position++;
+            return true;
+        }
+        if (c == close) {
+            this.position++;
+            return false;
+        }
+        throw this.syntaxError("Expected ',' or '" + close + '\'');
+    }
+
+    private @NotNull String readString() throws IOException {
+        this.expect('"');
+        // Fast path for strings without escapes that lie within the buffer
+        for (int i = this.position; i < this.limit; i++) {
+            final char c = this.buffer[i];
+            if (c == '"') {
+                final String string = new String(this.buffer, this.position, i - this.position);
+                this.position = i + 1;
+                return string;
+            }
+            if (c == '\\' || c < 0x20) {
+                break;
+            }
+        }
+        final StringBuilder builder = this.builder;
+        builder.setLength(0);
+        while (true) {
+            final char c = this.next();
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c == '\\') {
+                builder.append(this.readEscape());
+            } else if (c < 0x20) {
+                throw this.syntaxError("Unescaped control character in string");
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        this.expect('"');
+        while (true) {
+            final char c = this.next();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                this.readEscape();
+            } else if (c < 0x20) {
+                throw this.syntaxError("Unescaped control character in string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        final char c = this.next();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u': {
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(this.next(), 16);
+                    if (digit == -1) {
+                        throw this.syntaxError("Malformed unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            }
+            default:
+                throw this.syntaxError("Invalid escape sequence '\\" + c + '\'');
+        }
+    }
+
+    private @NotNull Boolean readBoolean() throws IOException {
+        if (this.peek() == 't') {
+            this.readLiteral("true");
+            return Boolean.TRUE;
+        }
+        this.readLiteral("false");
+        return Boolean.FALSE;
+    }
+
+    private void readLiteral(@NotNull final String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (this.position == this.limit && !this.fill()) {
+                throw this.syntaxError("Expected '" + literal + '\'');
+            }
+            if (this.buffer[this.position++] != literal.charAt(i)) {
+                throw this.syntaxError("Expected '" + literal + '\'');
+            }
+        }
+    }
+
+    private @NotNull Object readNumber(@NotNull final Class<?> type) throws IOException {
+        final StringBuilder builder = this.builder;
+        builder.setLength(0);
+        boolean integral = true;
+        while (this.position < this.limit || this.fill()) {
+            final char c = this.buffer[this.position];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+                builder.append(c);
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+                builder.append(c);
+            } else {
+                break;
+            }
+            this.position++;
+        }
+        if (builder.length() == 0) {
+            throw this.syntaxError("Expected a value");
+        }
+        try {
+            if (integral && builder.length() <= 18) {
+                // Short integers are parsed without creating a string
+                return this.convertNumber(parseLong(builder), type);
+            }
+            final String number = builder.toString();
+            if (integral) {
+                return this.convertNumber(new BigInteger(number), type);
+            }
+            return this.convertNumber(new BigDecimal(number), type);
+        } catch (final NumberFormatException | ArithmeticException e) {
+            throw this.syntaxError("Malformed number '" + builder + "' for type " + type.getName());
+        }
+    }
+
+    private @NotNull Object convertNumber(final long value, @NotNull final Class<?> type) {
+        if (type == Object.class || type == Number.class || type == Long.class || type == long.class) {
+            return value;
+        }
+        if (type == Integer.class || type == int.class) {
+            return Math.toIntExact(value);
+        }
+        if (type == Short.class || type == short.class) {
+            if (value != (short) value) {
+                throw new ArithmeticException("short overflow");
+            }
+            return (short) value;
+        }
+        if (type == Byte.class || type == byte.class) {
+            if (value != (byte) value) {
+                throw new ArithmeticException("byte overflow");
+            }
+            return (byte) value;
+        }
+        if (type == Double.class || type == double.class) {
+            return (double) value;
+        }
+        if (type == Float.class || type == float.class) {
+            return (float) value;
+        }
+        return this.convertNumber(BigDecimal.valueOf(value), type);
+    }
+
+    private @NotNull Object convertNumber(@NotNull final BigInteger value, @NotNull final Class<?> type) {
+        if (type == Object.class || type == Number.class || type == BigInteger.class) {
+            return value;
+        }
+        return this.convertNumber(new BigDecimal(value), type);
+    }
+
+    private @NotNull Object convertNumber(@NotNull final BigDecimal value, @NotNull final Class<?> type) {
+        if (type == BigDecimal.class) {
+            return value;
+        }
+        if (type == Object.class || type == Number.class || type == Double.class || type == double.class) {
+            return value.doubleValue();
+        }
+        if (type == Float.class || type == float.class) {
+            return value.floatValue();
+        }
+        if (type == BigInteger.class) {
+            return value.toBigIntegerExact();
+        }
+        if (type == Long.class || type == long.class) {
+            return value.longValueExact();
+        }
+        if (type == Integer.class || type == int.class) {
+            return value.intValueExact();
+        }
+        if (type == Short.class || type == short.class) {
+            return value.shortValueExact();
+        }
+        if (type == Byte.class || type == byte.class) {
+            return value.byteValueExact();
+        }
+        throw new IllegalArgumentException(String.format("Type '%s' can not be mapped to JSON", type.getName()));
+    }
+
+    private @NotNull Object convertKey(@NotNull final String key, @NotNull final Class<?> type) throws IOException {
+        if (type == String.class || type == Object.class || type == CharSequence.class) {
+            return key;
+        }
+        if (type.isEnum()) {
+            return this.toEnum(type, key);
+        }
+        try {
+            if (type == Long.class || type == long.class) {
+                return Long.parseLong(key);
+            }
+            if (type == Integer.class || type == int.class) {
+                return Integer.parseInt(key);
+            }
+        } catch (final NumberFormatException e) {
+            throw this.syntaxError("Malformed number '" + key + "' for type " + type.getName());
+        }
+        throw new IllegalArgumentException(String.format("Type '%s' can not be used as a JSON object key",
+                type.getName()));
+    }
+
+    private @NotNull Object readEnum(@NotNull final Class<?> type) throws IOException {
+        return this.toEnum(type, this.readString());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private @NotNull Object toEnum(@NotNull final Class<?> type, @NotNull final String name) throws IOException {
+        try {
+            return Enum.valueOf((Class) type, name);
+        } catch (final IllegalArgumentException e) {
+            throw this.syntaxError("Unknown constant '" + name + "' of " + type.getName());
+        }
+    }
+
+    private static long parseLong(@NotNull final CharSequence sequence) {
+        int index = 0;
+        boolean negative = false;
+        if (sequence.charAt(0) == '-') {
+            negative = true;
+            index++;
+        }
+        if (index == sequence.length()) {
+            throw new NumberFormatException();
+        }
+        long value = 0;
+        for (; index < sequence.length(); index++) {
+            final char c = sequence.charAt(index);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private void enter(final char open) throws IOException {
+        this.expect(open);
+        if (++this.depth > MAX_DEPTH) {
+            throw this.syntaxError("JSON nesting is too deep");
+        }
+    }
+
+    private void expect(final char expected) throws IOException {
+        if (this.peek() != expected) {
+            throw this.syntaxError("Expected '" + expected + '\'');
+        }
+        this.position++;
+    }
+
+    /**
+     * Skip whitespace and get the next character without consuming it
+     *
+     * @return Next character, or {@code -1} at the end of the input
+     */
+    private int peek() throws IOException {
+        while (this.position < this.limit || this.fill()) {
+            final char c = this.buffer[this.position];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            this.position++;
+        }
+        return -1;
+    }
+
+    private char next() throws IOException {
+        if (this.position == this.limit && !this.fill()) {
+            throw new EOFException("Unexpected end of JSON input at offset " + this.offset);
+        }
+        return this.buffer[this.position++];
+    }
+
+    private boolean fill() throws IOException {
+        this.offset += this.limit;
+        this.position = 0;
+        this.limit = 0;
+        final int read = this.reader.read(this.buffer, 0, this.buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        this.limit = read;
+        return true;
+    }
+
+    private @NotNull IOException syntaxError(@NotNull final String message) {
+        return new IOException(String.format("%s at offset %d", message, this.offset + this.position));
+    }
+
+    private static @NotNull Class<?> rawType(@NotNull final Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        if (type instanceof WildcardType) {
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        }
+        // Type variables can not be resolved without the declaring context
+        return Object.class;
+    }
+
+    private static @NotNull Type typeArgument(@NotNull final Type type, final int index) {
+        if (type instanceof ParameterizedType) {
+            final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static @NotNull Collection<Object> newCollection(@NotNull final Class<?> type) {
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            if (SortedSet.class.isAssignableFrom(type)) {
+                return new TreeSet<>();
+            }
+            if (Set.class.isAssignableFrom(type)) {
+                return new LinkedHashSet<>();
+            }
+            if (Queue.class.isAssignableFrom(type)) {
+                return new ArrayDeque<>();
+            }
+            return new ArrayList<>();
+        }
+        return (Collection<Object>) instantiate(type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static @NotNull Map<Object, Object> newMap(@NotNull final Class<?> type) {
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            if (SortedMap.class.isAssignableFrom(type)) {
+                return new TreeMap<>();
+            }
+            return new LinkedHashMap<>();
+        }
+        return (Map<Object, Object>) instantiate(type);
+    }
+
+    private static @NotNull Object instantiate(@NotNull final Class<?> type) {
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalArgumentException(String.format("Could not create an instance of '%s'",
+                    type.getName()), e);
+        }
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Streaming JSON writer used by {@link JsonMapper}. Output is buffered and
+ * written to the underlying writer in blocks
+ */
+final class JsonWriter {
+
+    private static final int MAX_DEPTH = 512;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int depth;
+
+    JsonWriter(@NotNull final Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Write a value, and everything it contains
+     *
+     * @param value Value to write
+     * @throws IOException              If the value could not be written
+     * @throws IllegalArgumentException If the value can not be represented as JSON
+     */
+    void writeValue(@Nullable final Object value) throws IOException {
+        if (value == null) {
+            this.write("null");
+        } else if (value instanceof CharSequence || value instanceof Character) {
+            this.writeString(value.toString());
+        } else if (value instanceof Boolean) {
+            this.write((Boolean) value ? "true" : "false");
+        } else if (value instanceof Number) {
+            this.writeNumber((Number) value);
+        } else if (value instanceof Enum) {
+            this.writeString(((Enum<?>) value).name());
+        } else if (value instanceof Map) {
+            this.enter();
+            this.write('{');
+            boolean first = true;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    this.write(',');
+                }
+                first = false;
+                this.writeString(entry.getKey() instanceof Enum ? ((Enum<?>) entry.getKey()).name()
+                        : String.valueOf(entry.getKey()));
+                this.write(':');
+                this.writeValue(entry.getValue());
+            }
+            this.write('}');
+            this.depth--;
+        } else if (value instanceof Iterable) {
+            this.enter();
+            this.write('[');
+            boolean first = true;
+            for (final Object element : (Iterable<?>) value) {
+                if (!first) {
+                    this.write(',');
+                }
+                first = false;
+                this.writeValue(element);
+            }
+            this.write(']');
+            this.depth--;
+        } else if (value.getClass().isArray()) {
+            this.enter();
+            this.write('[');
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i != 0) {
+                    this.write(',');
+                }
+                this.writeValue(Array.get(value, i));
+            }
+            this.write(']');
+            this.depth--;
+        } else {
+            this.writeObject(value);
+        }
+    }
+
+    private void writeObject(@NotNull final Object value) throws IOException {
+        this.enter();
+        this.write('{');
+        boolean first = true;
+        for (final Field field : JsonMapper.Binding.of(value.getClass()).getFields()) {
+            final Object fieldValue;
+            try {
+                fieldValue = field.get(value);
+            } catch (final IllegalAccessException e) {
+                throw new IllegalArgumentException(String.format("Could not read field '%s'", field), e);
+            }
+            if (fieldValue == null) {
+                continue;
+            }
+            if (!first) {
+                this.write(',');
+            }
+            first = false;
+            this.writeString(field.getName());
+            this.write(':');
+            this.writeValue(fieldValue);
+        }
+        this.write('}');
+        this.depth--;
+    }
+
+    private void writeNumber(@NotNull final Number number) throws IOException {
+        if (number instanceof Double || number instanceof Float) {
+            final double value = number.doubleValue();
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new IllegalArgumentException(String.format("%s can not be represented as JSON", number));
+            }
+            if (value == (long) value && Math.abs(value) < 1e15) {
+                this.write(Long.toString((long) value));
+                return;
+            }
+        } else if (!(number instanceof BigDecimal || number instanceof BigInteger || number instanceof Long
+                || number instanceof Integer || number instanceof Short || number instanceof Byte)) {
+            // Unknown implementations may produce anything from toString
+            this.write(new BigDecimal(number.toString()).toString());
+            return;
+        }
+        this.write(number.toString());
+    }
+
+    private void writeString(@NotNull final String string) throws IOException {
+        this.write('"');
+        int start = 0;
+        final int length = string.length();
+        for (int i = 0; i < length; i++) {
+            final char c = string.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            this.write(string, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    this.write("\\\"");
+                    break;
+                case '\\':
+                    this.write("\\\\");
+                    break;
+                case '\n':
+                    this.write("\\n");
+                    break;
+                case '\r':
+                    this.write("\\r");
+                    break;
+                case '\t':
+                    this.write("\\t");
+                    break;
+                default:
+                    this.write("\\u");
+                    this.write(HEX[(c >> 12) & 0xF]);
+                    this.write(HEX[(c >> 8) & 0xF]);
+                    this.write(HEX[(c >> 4) & 0xF]);
+                    this.write(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        this.write(string, start, length);
+        this.write('"');
+    }
+
+    private void enter() {
+        if (++this.depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("JSON nesting is too deep, the value might be cyclic");
+        }
+    }
+
+    private void write(final char c) throws IOException {
+        if (this.position == this.buffer.length) {
+            this.flushBuffer();
+        }
+        this.buffer[this.position++] = c;
+    }
+
+    private void write(@NotNull final String string) throws IOException {
+        this.write(string, 0, string.length());
+    }
+
+    private void write(@NotNull final String string, int start, final int end) throws IOException {
+        while (start < end) {
+            if (this.position == this.buffer.length) {
+                this.flushBuffer();
+            }
+            final int count = Math.min(end - start, this.buffer.length - this.position);
+            string.getChars(start, start + count, this.buffer, this.position);
+            this.position += count;
+            start += count;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        this.writer.write(this.buffer, 0, this.position);
+        this.position = 0;
+    }
+
+    /**
+     * Write all buffered output to the underlying writer and flush it. The
+     * underlying writer is not closed
+     *
+     * @throws IOException If the output could not be written
+     */
+    void flush() throws IOException {
+        this.flushBuffer();
+        this.writer.flush();
+    }
+
+}
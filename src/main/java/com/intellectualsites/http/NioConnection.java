@@ -0,0 +1,741 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Persistent HTTP/1.1 connection used by {@link NioHttpEngine}. The channel
+ * is non-blocking, and each connection waits for readiness on its own
+ * {@link Selector}, so that every read and write honours the timeout
+ */
+final class NioConnection implements Closeable {
+
+    private static final int BUFFER_SIZE = 16384;
+    private static final int MAX_LINE_LENGTH = 65536;
+    private static final int MAX_HEADERS = 100;
+    private static final int MAX_HEADER_SIZE = 65536;
+
+    private final String key;
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final SelectionKey selectionKey;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final InputStream inputStream = new ConnectionInputStream();
+    private final OutputStream outputStream = new ConnectionOutputStream();
+    private int readTimeout;
+    private boolean received;
+    private long idleSince;
+
+    private NioConnection(@NotNull final String key, @NotNull final SocketChannel channel,
+                          @NotNull final Selector selector) throws IOException {
+        this.key = key;
+        this.channel = channel;
+        this.selector = selector;
+        this.selectionKey = channel.register(selector, 0);
+        this.readBuffer.flip();
+    }
+
+    /**
+     * Open a new connection
+     *
+     * @param key            Pool key of the connection
+     * @param address        Address to connect to
+     * @param connectTimeout Connect timeout in milliseconds, or {@code 0} to wait indefinitely
+     * @return Opened connection
+     * @throws IOException If the connection could not be established
+     */
+    static @NotNull NioConnection open(@NotNull final String key, @NotNull final InetSocketAddress address,
+                                       final int connectTimeout) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        Selector selector = null;
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            selector = Selector.open();
+            final NioConnection connection = new NioConnection(key, channel, selector);
+            if (!channel.connect(address)) {
+                connection.await(SelectionKey.OP_CONNECT, connectTimeout, "Connect");
+                channel.finishConnect();
+            }
+            return connection;
+        } catch (final IOException | RuntimeException e) {
+            if (selector != null) {
+                selector.close();
+            }
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the key of the pool the connection belongs to
+     *
+     * @return Pool key
+     */
+    @NotNull String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Set the timeout that applies to every subsequent read
+     *
+     * @param readTimeout Read timeout in milliseconds, or {@code 0} to wait indefinitely
+     */
+    void setReadTimeout(final int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Whether any bytes have been received since the connection was
+     * last {@link #markIdle() returned to the pool}
+     *
+     * @return Whether bytes have been received
+     */
+    boolean hasReceived() {
+        return this.received;
+    }
+
+    /**
+     * Mark the connection as idle, before it is returned to the pool
+     */
+    void markIdle() {
+        this.idleSince = System.nanoTime();
+        this.received = false;
+    }
+
+    /**
+     * Check whether an idle connection has been idle for too long, or has been closed. Unlike
+     * {@link #isReusable(long)}, this does not perform any I/O, so it may be called by any thread
+     *
+     * @param now            Current {@link System#nanoTime() time} in nanoseconds
+     * @param keepAliveNanos Maximum idle duration in nanoseconds
+     * @return Whether the connection has expired
+     */
+    boolean isExpired(final long now, final long keepAliveNanos) {
+        return !this.channel.isOpen() || now - this.idleSince > keepAliveNanos;
+    }
+
+    /**
+     * Check whether an idle connection can be used for another exchange. This is not
+     * the case if it has been idle for too long, or if the peer has closed it or sent
+     * unsolicited data
+     *
+     * @param keepAliveNanos Maximum idle duration in nanoseconds
+     * @return Whether the connection can be reused
+     */
+    boolean isReusable(final long keepAliveNanos) {
+        if (!this.channel.isOpen() || System.nanoTime() - this.idleSince > keepAliveNanos
+                || this.readBuffer.hasRemaining()) {
+            return false;
+        }
+        try {
+            this.readBuffer.clear();
+            final int read = this.channel.read(this.readBuffer);
+            this.readBuffer.flip();
+            return read == 0;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the stream that reads from the connection. Closing
+     * the stream does not close the connection
+     *
+     * @return Input stream
+     */
+    @NotNull InputStream getInputStream() {
+        return this.inputStream;
+    }
+
+    /**
+     * Get the buffered stream that writes to the connection. Closing
+     * the stream flushes it, but does not close the connection
+     *
+     * @return Output stream
+     */
+    @NotNull OutputStream getOutputStream() {
+        return this.outputStream;
+    }
+
+    /**
+     * Read a CRLF terminated line, as used by the status line, headers and chunk sizes
+     *
+     * @return Line, without the terminator
+     * @throws IOException If the line could not be read
+     */
+    @NotNull String readLine() throws IOException {
+        final StringBuilder line = new StringBuilder();
+        while (true) {
+            if (!this.readBuffer.hasRemaining() && this.fill() == -1) {
+                throw new EOFException("Connection closed by peer");
+            }
+            final char c = (char) (this.readBuffer.get() & 0xFF);
+            if (c == '\n') {
+                final int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new IOException("Line exceeds " + MAX_LINE_LENGTH + " characters");
+            }
+            line.append(c);
+        }
+    }
+
+    /**
+     * Read the lines of a header section, such as the headers of a response or the trailers
+     * of a chunked body, up to the empty line that terminates it. The section is limited
+     * to {@value #MAX_HEADERS} lines, and {@value #MAX_HEADER_SIZE} bytes
+     *
+     * @return Header lines
+     * @throws IOException If the section could not be read, or exceeds the limits
+     */
+    @NotNull List<String> readHeaders() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        int size = 0;
+        String line;
+        while (!(line = this.readLine()).isEmpty()) {
+            size += line.length() + 2;
+            if (lines.size() == MAX_HEADERS) {
+                throw new IOException("Header section exceeds " + MAX_HEADERS + " lines");
+            }
+            if (size > MAX_HEADER_SIZE) {
+                throw new IOException("Header section exceeds " + MAX_HEADER_SIZE + " bytes");
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Abort the connection from another thread. Any thread waiting
+     * on the connection fails immediately
+     */
+    void abort() {
+        try {
+            this.channel.close();
+        } catch (final IOException ignored) {
+        }
+        this.selector.wakeup();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.selector.close();
+        } catch (final IOException ignored) {
+        }
+        try {
+            this.channel.close();
+        } catch (final IOException ignored) {
+        }
+    }
+
+    private int fill() throws IOException {
+        this.readBuffer.clear();
+        try {
+            while (true) {
+                final int read = this.channel.read(this.readBuffer);
+                if (read > 0) {
+                    this.received = true;
+                    return read;
+                } else if (read == -1) {
+                    return -1;
+                }
+                this.await(SelectionKey.OP_READ, this.readTimeout, "Read");
+            }
+        } finally {
+            this.readBuffer.flip();
+        }
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        this.writeBuffer.flip();
+        try {
+            while (this.writeBuffer.hasRemaining()) {
+                if (this.channel.write(this.writeBuffer) == 0) {
+                    this.await(SelectionKey.OP_WRITE, this.readTimeout, "Write");
+                }
+            }
+        } finally {
+            this.writeBuffer.clear();
+        }
+    }
+
+    private void await(final int operation, final int timeout, @NotNull final String action) throws IOException {
+        this.selectionKey.interestOps(operation);
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (this.selector.select(timeout == 0 ? 0 : Math.max(1L,
+                    TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))) == 0) {
+                if (!this.channel.isOpen()) {
+                    throw new IOException("Connection was closed");
+                }
+                if (timeout != 0 && deadline - System.nanoTime() <= 0) {
+                    throw new SocketTimeoutException(action + " timed out");
+                }
+            }
+            this.selector.selectedKeys().clear();
+        } finally {
+            if (this.selectionKey.isValid()) {
+                this.selectionKey.interestOps(0);
+            }
+        }
+    }
+
+
+    /**
+     * Parse a length sent by the peer. Unlike {@link Long#parseLong(String, int)}, signs
+     * are rejected, so that a length can never be negative
+     *
+     * @param value Length to parse
+     * @param radix Radix of the length, {@code 10} or {@code 16}
+     * @param name  Name of the length, used in the exception message
+     * @return Parsed length
+     * @throws IOException If the value is not a valid length
+     */
+    static long parseLength(@NotNull final String value, final int radix, @NotNull final String name)
+            throws IOException {
+        if (value.isEmpty()) {
+            throw new IOException("Invalid " + name + ": " + value);
+        }
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            // Character.digit would also accept non-ASCII digits
+            final int digit = c < 0x80 ? Character.digit(c, radix) : -1;
+            if (digit == -1) {
+                throw new IOException("Invalid " + name + ": " + value);
+            }
+            if (length > (Long.MAX_VALUE - digit) / radix) {
+                throw new IOException("Invalid " + name + ", out of range: " + value);
+            }
+            length = length * radix + digit;
+        }
+        return length;
+    }
+
+    private final class ConnectionInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            if (!NioConnection.this.readBuffer.hasRemaining() && NioConnection.this.fill() == -1) {
+                return -1;
+            }
+            return NioConnection.this.readBuffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(final byte @NotNull [] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!NioConnection.this.readBuffer.hasRemaining() && NioConnection.this.fill() == -1) {
+                return -1;
+            }
+            final int read = Math.min(length, NioConnection.this.readBuffer.remaining());
+            NioConnection.this.readBuffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return NioConnection.this.readBuffer.remaining();
+        }
+
+    }
+
+
+    private final class ConnectionOutputStream extends OutputStream {
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (!NioConnection.this.writeBuffer.hasRemaining()) {
+                NioConnection.this.flushWriteBuffer();
+            }
+            NioConnection.this.writeBuffer.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte @NotNull [] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!NioConnection.this.writeBuffer.hasRemaining()) {
+                    NioConnection.this.flushWriteBuffer();
+                }
+                final int count = Math.min(length, NioConnection.this.writeBuffer.remaining());
+                NioConnection.this.writeBuffer.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            NioConnection.this.flushWriteBuffer();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.flush();
+        }
+
+    }
+
+
+    /**
+     * Body that is delimited by a {@code Content-Length} header
+     */
+    static final class FixedLengthInputStream extends BodyInputStream {
+
+        private long remaining;
+
+        FixedLengthInputStream(@NotNull final InputStream stream, final long length) {
+            super(stream);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining == 0) {
+                return -1;
+            }
+            final int b = this.in.read();
+            if (b == -1) {
+                throw new EOFException("Connection closed before the body was read");
+            }
+            this.remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(final byte @NotNull [] bytes, final int offset, final int length) throws IOException {
+            if (this.remaining == 0) {
+                return -1;
+            }
+            final int read = this.in.read(bytes, offset, (int) Math.min(length, this.remaining));
+            if (read == -1) {
+                throw new EOFException("Connection closed before the body was read");
+            }
+            this.remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(this.in.available(), this.remaining);
+        }
+
+        @Override
+        boolean isComplete() {
+            return this.remaining == 0;
+        }
+
+    }
+
+
+    /**
+     * Body that is sent using {@code Transfer-Encoding: chunked}
+     */
+    static final class ChunkedInputStream extends BodyInputStream {
+
+        private final NioConnection connection;
+        private long remaining;
+        private boolean complete;
+
+        ChunkedInputStream(@NotNull final NioConnection connection) {
+            super(connection.getInputStream());
+            this.connection = connection;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!this.hasChunk()) {
+                return -1;
+            }
+            final int b = this.in.read();
+            if (b == -1) {
+                throw new EOFException("Connection closed before the body was read");
+            }
+            this.consumed(1);
+            return b;
+        }
+
+        @Override
+        public int read(final byte @NotNull [] bytes, final int offset, final int length) throws IOException {
+            if (!this.hasChunk()) {
+                return -1;
+            }
+            final int read = this.in.read(bytes, offset, (int) Math.min(length, this.remaining));
+            if (read == -1) {
+                throw new EOFException("Connection closed before the body was read");
+            }
+            this.consumed(read);
+            return read;
+        }
+
+        private boolean hasChunk() throws IOException {
+            if (!this.complete && this.remaining == 0) {
+                this.nextChunk();
+            }
+            return !this.complete;
+        }
+
+        private void consumed(final int count) throws IOException {
+            this.remaining -= count;
+            if (this.remaining == 0) {
+                // Chunk data is followed by CRLF
+                this.connection.readLine();
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(this.in.available(), this.remaining);
+        }
+
+        @Override
+        boolean isComplete() {
+            return this.complete;
+        }
+
+        private void nextChunk() throws IOException {
+            String line = this.connection.readLine();
+            final int extension = line.indexOf(';');
+            if (extension != -1) {
+                line = line.substring(0, extension);
+            }
+            this.remaining = parseLength(line.trim(), 16, "chunk size");
+            if (this.remaining == 0) {
+                // Skip trailers until the terminating empty line
+                this.connection.readHeaders();
+                this.complete = true;
+            }
+        }
+
+    }
+
+
+    /**
+     * Body that is delimited by the peer closing the connection
+     */
+    static final class UntilCloseInputStream extends BodyInputStream {
+
+        UntilCloseInputStream(@NotNull final InputStream stream) {
+            super(stream);
+        }
+
+        @Override
+        boolean isComplete() {
+            // The connection can never be reused
+            return false;
+        }
+
+    }
+
+
+    /**
+     * Stream over a response body, which knows whether
+     * the body has been read in its entirety
+     */
+    abstract static class BodyInputStream extends FilterInputStream {
+
+        BodyInputStream(@NotNull final InputStream stream) {
+            super(stream);
+        }
+
+        /**
+         * Whether the body has been read in its entirety, leaving
+         * the connection positioned at the next response
+         *
+         * @return Whether the body is complete
+         */
+        abstract boolean isComplete();
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // Skip by reading, so that the body stays delimited
+            final byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            long skipped = 0;
+            while (skipped < n) {
+                final int read = this.read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+            // The connection is released by the engine
+        }
+
+    }
+
+
+    /**
+     * Writes a request body using {@code Transfer-Encoding: chunked}. Small writes are
+     * collected, and sent as a single chunk once the buffer is full
+     */
+    static final class ChunkedOutputStream extends OutputStream {
+
+        private static final int CHUNK_SIZE = 8192;
+        private static final byte[] CRLF = {'\r', '\n'};
+        private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+        private final OutputStream stream;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+        private boolean closed;
+
+        ChunkedOutputStream(@NotNull final OutputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (this.count == this.buffer.length) {
+                this.writeBuffer();
+            }
+            this.buffer[this.count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte @NotNull [] bytes, final int offset, final int length) throws IOException {
+            if (length > this.buffer.length - this.count) {
+                this.writeBuffer();
+            }
+            if (length >= this.buffer.length) {
+                // Large writes are sent as they are, rather than being copied
+                this.writeChunk(bytes, offset, length);
+                return;
+            }
+            System.arraycopy(bytes, offset, this.buffer, this.count, length);
+            this.count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.writeBuffer();
+            this.stream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Serializers may close the stream themselves, so a second close must not
+            // terminate the body again
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.writeBuffer();
+            this.stream.write(LAST_CHUNK);
+            this.stream.flush();
+        }
+
+        private void writeBuffer() throws IOException {
+            this.writeChunk(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+
+        private void writeChunk(final byte @NotNull [] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            this.stream.write(Integer.toHexString(length).getBytes(StandardCharsets.US_ASCII));
+            this.stream.write(CRLF);
+            this.stream.write(bytes, offset, length);
+            this.stream.write(CRLF);
+        }
+
+    }
+
+
+    /**
+     * Writes a request body of a declared length
+     */
+    static final class FixedLengthOutputStream extends OutputStream {
+
+        private final OutputStream stream;
+        private long remaining;
+
+        FixedLengthOutputStream(@NotNull final OutputStream stream, final long length) {
+            this.stream = stream;
+            this.remaining = length;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (this.remaining == 0) {
+                throw new IOException("Body exceeds the declared content length");
+            }
+            this.stream.write(b);
+            this.remaining--;
+        }
+
+        @Override
+        public void write(final byte @NotNull [] bytes, final int offset, final int length) throws IOException {
+            if (length > this.remaining) {
+                throw new IOException("Body exceeds the declared content length");
+            }
+            this.stream.write(bytes, offset, length);
+            this.remaining -= length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.remaining != 0) {
+                throw new IOException("Body is shorter than the declared content length");
+            }
+            this.stream.flush();
+        }
+
+    }
+
+}
@@ -0,0 +1,409 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * {@link HttpEngine} that speaks HTTP/1.1 over {@link java.nio.channels.SocketChannel socket channels},
+ * and keeps its own pool of persistent connections per host. Requests that do not use plain
+ * {@code http} are delegated to {@link URLConnectionEngine}. Expired idle connections are
+ * evicted from the pool of every host whenever a connection is released
+ */
+final class NioHttpEngine extends HttpEngine {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    private final ConcurrentMap<String, Deque<NioConnection>> idleConnections = new ConcurrentHashMap<>();
+    private final URLConnectionEngine fallbackEngine = new URLConnectionEngine();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private volatile boolean closed;
+    private boolean connectionReuse;
+    private int maxIdleConnections;
+    private long keepAliveNanos;
+
+    NioHttpEngine() {
+    }
+
+    @Override
+    void configure(@NotNull final ClientSettings settings) {
+        this.connectionReuse = settings.isConnectionReuse();
+        this.maxIdleConnections = settings.getMaxIdleConnections();
+        this.keepAliveNanos = settings.getKeepAlive().toNanos();
+        this.fallbackEngine.configure(settings);
+    }
+
+    @Override
+    public @NotNull HttpResponse execute(@NotNull final HttpRequest request) throws IOException {
+        final URL url = request.getURL();
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            return this.fallbackEngine.execute(request);
+        }
+        final AtomicReference<NioConnection> current = new AtomicReference<>();
+        try (final Deadline deadline = Deadline.start(request.getTimeout(), () -> {
+            final NioConnection connection = current.get();
+            if (connection != null) {
+                connection.abort();
+            }
+        })) {
+            final HttpResponse response;
+            try {
+                response = this.execute(request, deadline, current);
+            } catch (final IOException e) {
+                if (deadline.isExpired()) {
+                    throw deadline.toException(e);
+                }
+                throw e;
+            }
+            // The deadline is cancelled before the response is handed out, so that it can not
+            // be aborted afterwards
+            if (!deadline.cancel()) {
+                throw deadline.toException(close(response));
+            }
+            return response;
+        }
+    }
+
+    private @NotNull HttpResponse execute(@NotNull final HttpRequest request, @NotNull final Deadline deadline,
+                                          @NotNull final AtomicReference<NioConnection> current) throws IOException {
+        final URL url = request.getURL();
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        final String key = url.getHost().toLowerCase(Locale.ROOT) + ':' + port;
+        final RequestBody body = RequestBody.of(request);
+        // The head is validated before a connection is used
+        final byte[] head = this.requestHead(request, body);
+
+        final NioConnection pooled = this.acquire(key);
+        if (pooled != null) {
+            current.set(pooled);
+            try {
+                return this.exchange(pooled, request, head, body);
+            } catch (final IOException e) {
+                pooled.close();
+                if (pooled.hasReceived() || deadline.isExpired() || e instanceof SocketTimeoutException) {
+                    throw e;
+                }
+                // The peer closed the idle connection before it could respond,
+                // so the request is sent again over a new connection
+            } catch (final RuntimeException e) {
+                pooled.close();
+                throw e;
+            }
+        }
+        // The connection can not be aborted before it has been opened, so the
+        // connect timeout is what enforces the deadline while connecting
+        final NioConnection connection = NioConnection.open(key, new InetSocketAddress(url.getHost(), port),
+                deadline.boundConnectTimeout(request.getConnectTimeout()));
+        current.set(connection);
+        try {
+            if (deadline.isExpired()) {
+                // The abort action may have run before the connection was published to it
+                throw deadline.toException(null);
+            }
+            return this.exchange(connection, request, head, body);
+        } catch (final IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private @NotNull HttpResponse exchange(@NotNull final NioConnection connection, @NotNull final HttpRequest request,
+                                           final byte @NotNull [] head, @Nullable final RequestBody body)
+            throws IOException {
+        connection.setReadTimeout(request.getReadTimeout());
+        writeRequest(connection, head, body);
+
+        // Skip interim responses, such as 100 Continue
+        String statusLine;
+        int status;
+        do {
+            statusLine = connection.readLine();
+            status = parseStatus(statusLine);
+            if (status / 100 == 1 && status != 101) {
+                connection.readHeaders();
+            }
+        } while (status / 100 == 1 && status != 101);
+
+        final int messageIndex = statusLine.indexOf(' ', statusLine.indexOf(' ') + 1);
+        final HttpResponse.Builder builder = HttpResponse.builder()
+                .withStatus(status)
+                .withStatusMessage(messageIndex == -1 ? "" : statusLine.substring(messageIndex + 1))
+                .withEntityMapper(request.getMapper());
+        String contentLength = null;
+        String transferEncoding = null;
+        boolean keepAlive = this.connectionReuse && !statusLine.startsWith("HTTP/1.0");
+        for (final String line : connection.readHeaders()) {
+            final int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            final String name = line.substring(0, colon).trim();
+            final String value = line.substring(colon + 1).trim();
+            if ("content-length".equalsIgnoreCase(name)) {
+                contentLength = value;
+            } else if ("transfer-encoding".equalsIgnoreCase(name)) {
+                transferEncoding = value;
+            } else if ("connection".equalsIgnoreCase(name) && value.toLowerCase(Locale.ROOT).contains("close")) {
+                keepAlive = false;
+            }
+            builder.withHeader(name, value);
+        }
+
+        final NioConnection.BodyInputStream stream;
+        long length = -1;
+        if (!request.getMethod().hasBody() || status == 204 || status == 304) {
+            stream = null;
+        } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            stream = new NioConnection.ChunkedInputStream(connection);
+        } else if (contentLength != null) {
+            length = NioConnection.parseLength(contentLength, 10, "content length");
+            stream = new NioConnection.FixedLengthInputStream(connection.getInputStream(), length);
+        } else {
+            stream = new NioConnection.UntilCloseInputStream(connection.getInputStream());
+        }
+
+        if (stream == null) {
+            this.release(connection, keepAlive);
+        } else if (request.isStreaming()) {
+            // The connection is now owned by the response, and released when its body is closed
+            builder.withBodyStream(new ResponseBodyStream(stream, keepAlive,
+                    drained -> this.release(connection, drained && stream.isComplete())));
+        } else {
+            builder.withBody(Streams.readFully(stream, length));
+            this.release(connection, keepAlive && stream.isComplete());
+        }
+        return builder.build();
+    }
+
+    private byte @NotNull [] requestHead(@NotNull final HttpRequest request, @Nullable final RequestBody body) {
+        final URL url = request.getURL();
+        final Headers headers = request.getHeaders();
+        final StringBuilder head = new StringBuilder(256);
+        final String target = url.getFile().isEmpty() ? "/" : url.getFile();
+        for (int i = 0; i < target.length(); i++) {
+            if (target.charAt(i) <= ' ') {
+                throw new IllegalArgumentException("Invalid character in request target: " + target);
+            }
+        }
+        head.append(request.getMethod().name()).append(' ').append(target).append(" HTTP/1.1\r\n");
+        if (headers.getHeaders(HeaderName.HOST).isEmpty()) {
+            head.append("Host: ").append(url.getHost());
+            if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+                head.append(':').append(url.getPort());
+            }
+            head.append("\r\n");
+        }
+        headers.forEach((headerName, values) -> {
+            if ("content-length".equalsIgnoreCase(headerName) || "transfer-encoding".equalsIgnoreCase(headerName)) {
+                return;
+            }
+            checkHeaderName(headerName);
+            for (final String value : values) {
+                checkHeaderValue(headerName, value);
+            }
+            head.append(headerName).append(": ").append(String.join(",", values)).append("\r\n");
+        });
+        if (!this.connectionReuse && headers.getHeaders(HeaderName.CONNECTION).isEmpty()) {
+            head.append("Connection: close\r\n");
+        }
+        if (body != null) {
+            if (headers.getHeader(HeaderName.CONTENT_TYPE).isEmpty()) {
+                final String contentType = body.getContentType().toString();
+                checkHeaderValue("Content-Type", contentType);
+                head.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            final long contentLength = body.getContentLength();
+            if (contentLength >= 0) {
+                head.append("Content-Length: ").append(contentLength).append("\r\n");
+            } else {
+                head.append("Transfer-Encoding: chunked\r\n");
+            }
+        } else if (request.getMethod() == HttpMethod.POST || request.getMethod() == HttpMethod.PUT
+                || request.getMethod() == HttpMethod.PATCH) {
+            head.append("Content-Length: 0\r\n");
+        }
+        head.append("\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void writeRequest(@NotNull final NioConnection connection, final byte @NotNull [] head,
+                                     @Nullable final RequestBody body) throws IOException {
+        final OutputStream outputStream = connection.getOutputStream();
+        outputStream.write(head);
+        if (body != null) {
+            final long contentLength = body.getContentLength();
+            try (final OutputStream bodyStream = contentLength >= 0
+                    ? new NioConnection.FixedLengthOutputStream(outputStream, contentLength)
+                    : new NioConnection.ChunkedOutputStream(outputStream)) {
+                body.writeTo(bodyStream);
+            }
+        } else {
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Reject header names that are not a valid token, as they could be used to inject
+     * headers, or to smuggle a request
+     */
+    private static void checkHeaderName(@NotNull final String name) {
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Header name must not be empty");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c <= ' ' || c >= 0x7F || "\"(),/:;<=>?@[\\]{}".indexOf(c) != -1) {
+                throw new IllegalArgumentException(String.format("Invalid character 0x%02x in header name: %s",
+                        (int) c, name));
+            }
+        }
+    }
+
+    /**
+     * Reject header values that could terminate the header line, or the head of the request
+     */
+    private static void checkHeaderValue(@NotNull final String name, @NotNull final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == '\0') {
+                throw new IllegalArgumentException(String.format("Invalid character 0x%02x in value of header %s",
+                        (int) c, name));
+            }
+        }
+    }
+
+    private static int parseStatus(@NotNull final String statusLine) throws IOException {
+        final int start = statusLine.indexOf(' ');
+        if (!statusLine.startsWith("HTTP/") || start == -1) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        int end = statusLine.indexOf(' ', start + 1);
+        if (end == -1) {
+            end = statusLine.length();
+        }
+        try {
+            return Integer.parseInt(statusLine.substring(start + 1, end));
+        } catch (final NumberFormatException e) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+    }
+
+    private @Nullable NioConnection acquire(@NotNull final String key) {
+        final Deque<NioConnection> connections = this.idleConnections.get(key);
+        if (connections == null) {
+            return null;
+        }
+        NioConnection connection;
+        while ((connection = connections.pollFirst()) != null) {
+            if (connection.isReusable(this.keepAliveNanos)) {
+                return connection;
+            }
+            connection.close();
+        }
+        return null;
+    }
+
+    private void release(@NotNull final NioConnection connection, final boolean reusable) {
+        if (!reusable || this.closed) {
+            connection.close();
+            return;
+        }
+        connection.markIdle();
+        // The pool of a host is only created and removed while holding its lock,
+        // so that a connection is never added to a pool that has been removed
+        this.idleConnections.compute(connection.getKey(), (key, pool) -> {
+            final Deque<NioConnection> connections = pool == null ? new ConcurrentLinkedDeque<>() : pool;
+            // The most recently used connection is handed out first, and the least recently used is evicted
+            connections.offerFirst(connection);
+            while (connections.size() > this.maxIdleConnections) {
+                final NioConnection evicted = connections.pollLast();
+                if (evicted != null) {
+                    evicted.close();
+                }
+            }
+            return connections;
+        });
+        if (this.closed) {
+            // The engine was closed while the connection was being released
+            this.closeIdleConnections();
+            return;
+        }
+        final long now = System.nanoTime();
+        final long lastSweep = this.lastSweep.get();
+        if (now - lastSweep >= SWEEP_INTERVAL_NANOS && this.lastSweep.compareAndSet(lastSweep, now)) {
+            this.evictExpired(now);
+        }
+    }
+
+    /**
+     * Close idle connections that have expired, including those of hosts that
+     * are no longer requested, and remove the pools that are left empty
+     */
+    private void evictExpired(final long now) {
+        for (final Deque<NioConnection> connections : this.idleConnections.values()) {
+            for (final NioConnection connection : connections) {
+                // Only the thread that removes a connection from the pool may close it
+                if (connection.isExpired(now, this.keepAliveNanos) && connections.remove(connection)) {
+                    connection.close();
+                }
+            }
+        }
+        for (final String key : this.idleConnections.keySet()) {
+            this.idleConnections.computeIfPresent(key, (k, connections) -> connections.isEmpty() ? null : connections);
+        }
+    }
+
+    private void closeIdleConnections() {
+        for (final Deque<NioConnection> connections : this.idleConnections.values()) {
+            NioConnection connection;
+            while ((connection = connections.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.closeIdleConnections();
+        this.fallbackEngine.close();
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Supplier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Request entity together with the serializer that writes it
+ */
+final class RequestBody {
+
+    private final Object entity;
+    private final EntityMapper.EntitySerializer<Object> serializer;
+    private byte[] bytes;
+
+    private RequestBody(@NotNull final Object entity, @NotNull final EntityMapper.EntitySerializer<Object> serializer) {
+        this.entity = entity;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Get the body of a request, if the request has an input entity
+     *
+     * @param request Request
+     * @return Request body, or {@code null}
+     * @throws IllegalArgumentException If there is no serializer for the entity
+     */
+    @SuppressWarnings("unchecked")
+    static @Nullable RequestBody of(@NotNull final HttpRequest request) {
+        final Supplier<Object> inputSupplier = request.getInputSupplier();
+        if (inputSupplier == null) {
+            return null;
+        }
+        final Object object = inputSupplier.get();
+        if (object == null) {
+            return null;
+        }
+        final EntityMapper.EntitySerializer<?> serializer =
+                request.getMapper().getSerializer(object.getClass()).orElseThrow(() -> new IllegalArgumentException(String
+                        .format("There is no registered serializer for type '%s'",
+                                object.getClass().getCanonicalName())));
+        return new RequestBody(object, (EntityMapper.EntitySerializer<Object>) serializer);
+    }
+
+    /**
+     * Get the content type of the body
+     *
+     * @return Content type
+     */
+    @NotNull ContentType getContentType() {
+        return this.serializer.getContentType();
+    }
+
+    /**
+     * Whether the body is written straight to the connection by a
+     * {@link EntityMapper.StreamingEntitySerializer}, rather than being serialized up front
+     *
+     * @return Whether the body is streamed
+     */
+    boolean isStreaming() {
+        return this.serializer instanceof EntityMapper.StreamingEntitySerializer;
+    }
+
+    /**
+     * Get the length of the body. Bodies that are not written by a
+     * {@link EntityMapper.StreamingEntitySerializer} are serialized
+     * in order to determine their length
+     *
+     * @return Length in bytes, or {@code -1} if it is not known up front
+     */
+    long getContentLength() {
+        if (this.serializer instanceof EntityMapper.StreamingEntitySerializer) {
+            return ((EntityMapper.StreamingEntitySerializer<Object>) this.serializer).getContentLength(this.entity);
+        }
+        return this.getBytes().length;
+    }
+
+    /**
+     * Write the body to a stream
+     *
+     * @param outputStream Stream to write to
+     * @throws IOException If the body could not be written
+     */
+    void writeTo(@NotNull final OutputStream outputStream) throws IOException {
+        if (this.serializer instanceof EntityMapper.StreamingEntitySerializer) {
+            ((EntityMapper.StreamingEntitySerializer<Object>) this.serializer).serialize(this.entity, outputStream);
+        } else {
+            outputStream.write(this.getBytes());
+        }
+    }
+
+    /**
+     * Get the serialized body
+     *
+     * @return Serialized body
+     */
+    byte @NotNull [] getBytes() {
+        if (this.bytes == null) {
+            this.bytes = this.serializer.serialize(this.entity);
+        }
+        return this.bytes;
+    }
+
+}
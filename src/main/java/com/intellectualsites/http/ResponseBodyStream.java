@@ -0,0 +1,95 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Response body that is read straight from an open connection. Closing
+ * the stream releases the connection
+ */
+final class ResponseBodyStream extends FilterInputStream {
+
+    /**
+     * Maximum number of unread bytes that are discarded on close to keep the connection
+     * alive. Reading more would cost more than opening a new connection
+     */
+    private static final long MAX_DRAIN = 65536L;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final boolean drain;
+    private final Release release;
+
+    /**
+     * Create a new body stream
+     *
+     * @param stream  Stream of the connection
+     * @param drain   Whether unread bytes should be consumed on close, so that the connection can be reused
+     * @param release Action that releases the connection once the stream has been closed
+     */
+    ResponseBodyStream(@NotNull final InputStream stream, final boolean drain, @NotNull final Release release) {
+        super(stream);
+        this.drain = drain;
+        this.release = release;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+        boolean reusable = false;
+        try {
+            reusable = this.drain && Streams.drain(this.in, MAX_DRAIN);
+        } finally {
+            try {
+                this.in.close();
+            } finally {
+                this.release.release(reusable);
+            }
+        }
+    }
+
+    /**
+     * Action that releases the connection of a body stream
+     */
+    @FunctionalInterface
+    interface Release {
+
+        /**
+         * Release the connection
+         *
+         * @param reusable Whether the body was read in its entirety, so that the connection
+         *                 can be reused. If not, the connection must be closed
+         */
+        void release(boolean reusable);
+
+    }
+
+}
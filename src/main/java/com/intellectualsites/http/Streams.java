@@ -0,0 +1,114 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Utilities for reading HTTP entities from streams
+ */
+final class Streams {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_INITIAL_SIZE = 1 << 20;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final byte[] EMPTY = new byte[0];
+
+    private Streams() {
+    }
+
+    /**
+     * Read the remaining contents of a stream into a byte array. If the content length
+     * is known, the array is sized up front and returned without being copied. The content
+     * length is sent by the peer, so at most {@value #MAX_INITIAL_SIZE} bytes are allocated
+     * before any data has been read
+     *
+     * @param stream        Stream to read from
+     * @param contentLength Expected number of bytes, or {@code -1} if unknown
+     * @return Read bytes
+     * @throws IOException If the stream could not be read
+     */
+    static byte @NotNull [] readFully(@NotNull final InputStream stream, final long contentLength) throws IOException {
+        if (contentLength == 0) {
+            return EMPTY;
+        }
+        byte[] buffer = new byte[contentLength > 0 ? (int) Math.min(contentLength, MAX_INITIAL_SIZE) : BUFFER_SIZE];
+        int size = 0;
+        while (true) {
+            if (size == buffer.length) {
+                // Probe for the end of the stream before growing, so that a
+                // correct content length never causes a copy
+                final int next = stream.read();
+                if (next == -1) {
+                    break;
+                }
+                if (buffer.length == MAX_ARRAY_SIZE) {
+                    throw new IOException("Entity is too large to be read into memory");
+                }
+                long capacity = (long) buffer.length << 1;
+                if (contentLength > buffer.length && contentLength < capacity) {
+                    // Grow straight to the announced length once it is within reach
+                    capacity = contentLength;
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min(capacity, MAX_ARRAY_SIZE));
+                buffer[size++] = (byte) next;
+            }
+            final int read = stream.read(buffer, size, buffer.length - size);
+            if (read == -1) {
+                break;
+            }
+            size += read;
+        }
+        return size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Read and discard the remaining contents of a stream, up to a limit
+     *
+     * @param stream Stream to drain
+     * @param limit  Maximum number of bytes to discard
+     * @return Whether the end of the stream was reached within the limit
+     * @throws IOException If the stream could not be read
+     */
+    static boolean drain(@NotNull final InputStream stream, final long limit) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = limit;
+        while (true) {
+            // Read one byte past the limit, to tell whether the stream ended at the limit
+            final int read = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining + 1));
+            if (read == -1) {
+                return true;
+            }
+            remaining -= read;
+            if (remaining < 0) {
+                return false;
+            }
+        }
+    }
+
+}
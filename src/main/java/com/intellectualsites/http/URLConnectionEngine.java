@@ -0,0 +1,172 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * {@link HttpEngine} backed by {@link HttpURLConnection}
+ */
+final class URLConnectionEngine extends HttpEngine {
+
+    private boolean connectionReuse;
+
+    URLConnectionEngine() {
+    }
+
+    @Override
+    void configure(@NotNull final ClientSettings settings) {
+        this.connectionReuse = settings.isConnectionReuse();
+        if (this.connectionReuse) {
+            // HttpURLConnection keeps a single pool per JVM and reads these properties
+            // once, when it is first used. Values configured by the application take precedence
+            setPropertyIfAbsent("http.maxConnections", Integer.toString(settings.getMaxIdleConnections()));
+            setPropertyIfAbsent("http.keepAlive.time.server",
+                    Long.toString(Math.max(1L, settings.getKeepAlive().getSeconds())));
+        }
+    }
+
+    @Override
+    public @NotNull HttpResponse execute(@NotNull final HttpRequest request) throws IOException {
+        final HttpURLConnection httpURLConnection = (HttpURLConnection) request.getURL().openConnection();
+        // Disconnecting from another thread makes blocked reads and writes fail immediately
+        try (final Deadline deadline = Deadline.start(request.getTimeout(), httpURLConnection::disconnect)) {
+            final HttpResponse response;
+            try {
+                response = this.exchange(request, httpURLConnection, deadline);
+            } catch (final IOException e) {
+                if (deadline.isExpired()) {
+                    throw deadline.toException(e);
+                }
+                throw e;
+            }
+            // The deadline is cancelled before the response is handed out, so that it can not
+            // be aborted afterwards. Disconnecting has no effect before the socket is connected,
+            // so the exchange may also have completed after the abort ran
+            if (!deadline.cancel()) {
+                throw deadline.toException(close(response));
+            }
+            return response;
+        }
+    }
+
+    private @NotNull HttpResponse exchange(@NotNull final HttpRequest request,
+                                           @NotNull final HttpURLConnection httpURLConnection,
+                                           @NotNull final Deadline deadline) throws IOException {
+        boolean release = false;
+        try {
+            httpURLConnection.setRequestMethod(request.getMethod().name());
+            httpURLConnection.setDoOutput(request.getMethod().hasBody());
+            httpURLConnection.setUseCaches(false);
+            httpURLConnection.setConnectTimeout(deadline.boundConnectTimeout(request.getConnectTimeout()));
+            httpURLConnection.setReadTimeout(request.getReadTimeout());
+            final Headers headers = request.getHeaders();
+            headers.forEach((headerName, values) -> {
+                if (values.size() == 1) {
+                    httpURLConnection.addRequestProperty(headerName, values.get(0));
+                } else {
+                    httpURLConnection.addRequestProperty(headerName, String.join(",", values));
+                }
+            });
+            httpURLConnection.setDoInput(true);
+            httpURLConnection.setDoOutput(request.getInputSupplier() != null);
+            final RequestBody body = RequestBody.of(request);
+            if (body != null) {
+                if (headers.getHeader(HeaderName.CONTENT_TYPE).isEmpty()) {
+                    httpURLConnection.setRequestProperty("Content-Type", body.getContentType().toString());
+                }
+                if (body.isStreaming()) {
+                    // Stream the body to the socket, rather than letting the connection buffer it. A
+                    // streamed body can not be sent again, so HttpURLConnection neither follows
+                    // redirects nor answers authentication challenges for these requests
+                    final long contentLength = body.getContentLength();
+                    if (contentLength >= 0) {
+                        httpURLConnection.setFixedLengthStreamingMode(contentLength);
+                    } else {
+                        httpURLConnection.setChunkedStreamingMode(0);
+                    }
+                    try (final OutputStream outputStream = httpURLConnection.getOutputStream()) {
+                        body.writeTo(outputStream);
+                    }
+                } else {
+                    // Buffered bodies can be replayed by the connection when it follows a redirect
+                    try (final OutputStream outputStream = httpURLConnection.getOutputStream()) {
+                        outputStream.write(body.getBytes());
+                    }
+                }
+            }
+            httpURLConnection.connect();
+
+            final InputStream stream;
+            if (request.getMethod().hasBody()) {
+                if (httpURLConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    stream = httpURLConnection.getErrorStream();
+                } else {
+                    stream = httpURLConnection.getInputStream();
+                }
+            } else {
+                stream = null;
+            }
+
+            final HttpResponse.Builder builder = HttpResponse.builder()
+                    .withStatus(httpURLConnection.getResponseCode())
+                    .withStatusMessage(httpURLConnection.getResponseMessage())
+                    .withEntityMapper(request.getMapper())
+                    // The connection keeps the parsed headers after it has been released
+                    .withHeaders(() -> Headers.fromMap(httpURLConnection.getHeaderFields()));
+
+            if (stream != null && request.isStreaming()) {
+                // The connection is now owned by the response, and released when its body is closed
+                builder.withBodyStream(new ResponseBodyStream(stream, this.connectionReuse, reusable -> {
+                    // Closing the stream of a drained body hands the connection back to the keep-alive pool
+                    if (!reusable) {
+                        httpURLConnection.disconnect();
+                    }
+                }));
+                release = true;
+                return builder.build();
+            } else if (stream != null) {
+                try (final InputStream inputStream = stream) {
+                    builder.withBody(Streams.readFully(inputStream, httpURLConnection.getContentLengthLong()));
+                }
+            }
+
+            final HttpResponse response = builder.build();
+            // The body has been read until the end of the stream, so the connection
+            // can be handed back to the keep-alive pool instead of being closed
+            release = this.connectionReuse;
+            return response;
+        } finally {
+            if (!release) {
+                httpURLConnection.disconnect();
+            }
+        }
+    }
+
+}
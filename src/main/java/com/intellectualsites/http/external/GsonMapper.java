@@ -25,10 +25,30 @@
 package com.intellectualsites.http.external;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import com.intellectualsites.http.ContentType;
 import com.intellectualsites.http.EntityMapper;
+import com.intellectualsites.http.TypeReference;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -38,7 +58,8 @@ import org.jetbrains.annotations.Nullable;
 public final class GsonMapper {
 
     /**
-     * Create a new serializer
+     * Create a new serializer. The JSON is serialized up front, so that the
+     * request can declare its {@code Content-Length}
      *
      * @param clazz Input class
      * @param gson  Gson instance
@@ -50,6 +71,25 @@ public final class GsonMapper {
         return new GsonSerializer<>(clazz, gson);
     }
 
+    /**
+     * Create a new serializer, which optionally writes the JSON straight to the connection.
+     * The length of a streamed body is not known up front, so it is sent using chunked transfer
+     * encoding. Some servers reject chunked requests, and the default engine does not follow
+     * redirects for them, see {@link EntityMapper.StreamingEntitySerializer}
+     *
+     * @param clazz     Input class
+     * @param gson      Gson instance
+     * @param streaming Whether the body should be streamed, rather than serialized up front
+     * @param <T>       Input type
+     * @return Serializer for the input type
+     */
+    public static @NotNull <T> EntityMapper.EntitySerializer<T> serializer(@NotNull final Class<T> clazz,
+                                                                          @NotNull final Gson gson,
+                                                                          final boolean streaming) {
+        final GsonSerializer<T> serializer = new GsonSerializer<>(clazz, gson);
+        return streaming ? new StreamingGsonSerializer<>(serializer) : serializer;
+    }
+
     /**
      * Create a new deserializer
      *
@@ -63,20 +103,107 @@ public final class GsonMapper {
         return new GsonDeserializer<>(clazz, gson);
     }
 
+    /**
+     * Create a new deserializer for a parameterized type, such as {@code List<String>}
+     *
+     * @param type Output type reference
+     * @param gson Gson instance
+     * @param <T>  Output type
+     * @return Deserializer for the output type
+     */
+    public static @NotNull <T> GsonDeserializer<T> deserializer(@NotNull final TypeReference<T> type,
+                                                                @NotNull final Gson gson) {
+        return new GsonDeserializer<>(type.getType(), gson);
+    }
+
+    /**
+     * Create a new deserializer for a type, which may be parameterized
+     *
+     * @param type Output type
+     * @param gson Gson instance
+     * @param <T>  Output type
+     * @return Deserializer for the output type
+     */
+    public static @NotNull <T> GsonDeserializer<T> deserializer(@NotNull final Type type,
+                                                                @NotNull final Gson gson) {
+        return new GsonDeserializer<>(type, gson);
+    }
+
+    /**
+     * Create a codec factory that handles every type without a registered codec,
+     * see {@link EntityMapper#registerFallback(EntityMapper.EntityCodecFactory)}
+     *
+     * @param gson Gson instance
+     * @return Codec factory
+     */
+    public static @NotNull EntityMapper.EntityCodecFactory fallback(@NotNull final Gson gson) {
+        return new GsonCodecFactory(gson);
+    }
+
+
+    private static final class GsonCodecFactory implements EntityMapper.EntityCodecFactory {
+
+        private final Gson gson;
+        private final ClassValue<Optional<GsonSerializer<?>>> serializers = new ClassValue<Optional<GsonSerializer<?>>>() {
+            @Override
+            protected Optional<GsonSerializer<?>> computeValue(final Class<?> type) {
+                return Optional.of(new GsonSerializer<>(type, GsonCodecFactory.this.gson));
+            }
+        };
+        private final ConcurrentMap<Type, Optional<GsonDeserializer<?>>> deserializers = new ConcurrentHashMap<>();
+
+        private GsonCodecFactory(@NotNull final Gson gson) {
+            this.gson = gson;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @NotNull <T> Optional<EntityMapper.EntitySerializer<T>> createSerializer(@NotNull final Class<T> clazz) {
+            return (Optional<EntityMapper.EntitySerializer<T>>) (Optional<?>) this.serializers.get(clazz);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @NotNull <T> Optional<EntityMapper.EntityDeserializer<T>> createDeserializer(@NotNull final Type type) {
+            return (Optional<EntityMapper.EntityDeserializer<T>>) (Optional<?>) this.deserializers
+                    .computeIfAbsent(type, key -> Optional.of(new GsonDeserializer<>(key, this.gson)));
+        }
+
+    }
+
 
     private static final class GsonSerializer<T> implements EntityMapper.EntitySerializer<T> {
 
         private final Class<T> clazz;
         private final Gson gson;
+        private final TypeAdapter<T> adapter;
 
         private GsonSerializer(@NotNull final Class<T> clazz, @NotNull final Gson gson) {
             this.clazz = clazz;
             this.gson = gson;
+            this.adapter = gson.getAdapter(clazz);
         }
 
         @Override
         public byte @NotNull [] serialize(@NotNull final T input) {
-            return this.gson.toJson(input).getBytes(StandardCharsets.UTF_8);
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try {
+                this.write(input, outputStream);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return outputStream.toByteArray();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void write(@NotNull final T input, @NotNull final OutputStream outputStream) throws IOException {
+            // Like Gson#toJson(Object), subclasses are written using their runtime type
+            final TypeAdapter<T> adapter = input.getClass() == this.clazz ? this.adapter
+                    : (TypeAdapter<T>) this.gson.getAdapter(input.getClass());
+            final JsonWriter writer = this.gson.newJsonWriter(new OutputStreamWriter(outputStream,
+                    StandardCharsets.UTF_8));
+            adapter.write(writer, input);
+            writer.flush();
         }
 
         @Override
@@ -87,28 +214,71 @@ public final class GsonMapper {
     }
 
 
-    private static final class GsonDeserializer<T> implements EntityMapper.EntityDeserializer<T> {
+    private static final class StreamingGsonSerializer<T> implements EntityMapper.StreamingEntitySerializer<T> {
+
+        private final GsonSerializer<T> serializer;
+
+        private StreamingGsonSerializer(@NotNull final GsonSerializer<T> serializer) {
+            this.serializer = serializer;
+        }
+
+        @Override
+        public void serialize(@NotNull final T input, @NotNull final OutputStream outputStream) throws IOException {
+            this.serializer.write(input, outputStream);
+        }
+
+        @Override
+        public ContentType getContentType() {
+            return this.serializer.getContentType();
+        }
+
+    }
+
+
+    private static final class GsonDeserializer<T> implements EntityMapper.StreamingEntityDeserializer<T> {
 
-        private final Class<T> clazz;
         private final Gson gson;
+        private final TypeAdapter<T> adapter;
 
-        private GsonDeserializer(@NotNull final Class<T> clazz, @NotNull final Gson gson) {
-            this.clazz = clazz;
+        @SuppressWarnings("unchecked")
+        private GsonDeserializer(@NotNull final Type type, @NotNull final Gson gson) {
             this.gson = gson;
+            this.adapter = (TypeAdapter<T>) gson.getAdapter(TypeToken.get(type));
         }
 
         @Override
-        public @NotNull T deserialize(@Nullable final ContentType contentType, final byte @NotNull [] input) {
-            final Charset charset;
-            if (contentType != null && contentType.toString().toLowerCase().contains("utf-8")) {
-                charset = StandardCharsets.UTF_8;
-            } else if (contentType != null && contentType.toString().toLowerCase()
-                    .contains("utf-16")) {
-                charset = StandardCharsets.UTF_16;
-            } else {
-                charset = StandardCharsets.US_ASCII;
+        @SuppressWarnings("deprecation")
+        public @NotNull T deserialize(@Nullable final ContentType contentType,
+                                      @NotNull final InputStream inputStream) throws IOException {
+            // JSON is UTF-8 unless stated otherwise (RFC 8259)
+            final Charset charset = contentType == null ? StandardCharsets.UTF_8
+                    : contentType.getCharset(StandardCharsets.UTF_8);
+            final JsonReader reader = this.gson.newJsonReader(new InputStreamReader(inputStream, charset));
+            // Gson#fromJson reads leniently as well
+            reader.setLenient(true);
+            boolean empty = true;
+            try {
+                reader.peek();
+                empty = false;
+                final T value = this.adapter.read(reader);
+                if (value != null && reader.peek() != JsonToken.END_DOCUMENT) {
+                    throw new JsonSyntaxException("JSON document was not fully consumed.");
+                }
+                return value;
+            } catch (final EOFException e) {
+                if (empty) {
+                    return null;
+                }
+                throw new JsonSyntaxException(e);
+            } catch (final MalformedJsonException | IllegalStateException e) {
+                throw new JsonSyntaxException(e);
             }
-            return this.gson.fromJson(new String(input, charset), this.clazz);
         }
+
+        @Override
+        public ContentType getContentType() {
+            return ContentType.JSON;
+        }
+
     }
 }
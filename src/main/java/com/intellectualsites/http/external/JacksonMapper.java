@@ -0,0 +1,227 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http.external;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.intellectualsites.http.ContentType;
+import com.intellectualsites.http.EntityMapper;
+import com.intellectualsites.http.TypeReference;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Class containing {@link EntityMapper mappers} for Jackson {@link ObjectMapper object mappers}
+ */
+public final class JacksonMapper {
+
+    private JacksonMapper() {
+    }
+
+    /**
+     * Create a new serializer
+     *
+     * @param clazz        Input class
+     * @param objectMapper Object mapper instance
+     * @param <T>          Input type
+     * @return Serializer for the input type
+     */
+    public static @NotNull <T> EntityMapper.StreamingEntitySerializer<T> serializer(@NotNull final Class<T> clazz,
+                                                                                    @NotNull final ObjectMapper objectMapper) {
+        return new JacksonSerializer<>(clazz, objectMapper);
+    }
+
+    /**
+     * Create a new deserializer
+     *
+     * @param clazz        Output class
+     * @param objectMapper Object mapper instance
+     * @param <T>          Output type
+     * @return Deserializer for the output type
+     */
+    public static @NotNull <T> EntityMapper.StreamingEntityDeserializer<T> deserializer(@NotNull final Class<T> clazz,
+                                                                                        @NotNull final ObjectMapper objectMapper) {
+        return new JacksonDeserializer<>(clazz, objectMapper);
+    }
+
+    /**
+     * Create a new deserializer for a parameterized type, such as {@code List<String>}
+     *
+     * @param type         Output type reference
+     * @param objectMapper Object mapper instance
+     * @param <T>          Output type
+     * @return Deserializer for the output type
+     */
+    public static @NotNull <T> EntityMapper.StreamingEntityDeserializer<T> deserializer(@NotNull final TypeReference<T> type,
+                                                                                        @NotNull final ObjectMapper objectMapper) {
+        return new JacksonDeserializer<>(type.getType(), objectMapper);
+    }
+
+    /**
+     * Create a new deserializer for a type, which may be parameterized
+     *
+     * @param type         Output type
+     * @param objectMapper Object mapper instance
+     * @param <T>          Output type
+     * @return Deserializer for the output type
+     */
+    public static @NotNull <T> EntityMapper.StreamingEntityDeserializer<T> deserializer(@NotNull final Type type,
+                                                                                        @NotNull final ObjectMapper objectMapper) {
+        return new JacksonDeserializer<>(type, objectMapper);
+    }
+
+    /**
+     * Create a codec factory that handles every type without a registered codec,
+     * see {@link EntityMapper#registerFallback(EntityMapper.EntityCodecFactory)}
+     *
+     * @param objectMapper Object mapper instance
+     * @return Codec factory
+     */
+    public static @NotNull EntityMapper.EntityCodecFactory fallback(@NotNull final ObjectMapper objectMapper) {
+        return new JacksonCodecFactory(objectMapper);
+    }
+
+
+    private static final class JacksonCodecFactory implements EntityMapper.EntityCodecFactory {
+
+        private final ObjectMapper objectMapper;
+        private final ClassValue<Optional<JacksonSerializer<?>>> serializers =
+                new ClassValue<Optional<JacksonSerializer<?>>>() {
+                    @Override
+                    protected Optional<JacksonSerializer<?>> computeValue(final Class<?> type) {
+                        return Optional.of(new JacksonSerializer<>(type, JacksonCodecFactory.this.objectMapper));
+                    }
+                };
+        private final ConcurrentMap<Type, Optional<JacksonDeserializer<?>>> deserializers = new ConcurrentHashMap<>();
+
+        private JacksonCodecFactory(@NotNull final ObjectMapper objectMapper) {
+            this.objectMapper = objectMapper;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @NotNull <T> Optional<EntityMapper.EntitySerializer<T>> createSerializer(@NotNull final Class<T> clazz) {
+            return (Optional<EntityMapper.EntitySerializer<T>>) (Optional<?>) this.serializers.get(clazz);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @NotNull <T> Optional<EntityMapper.EntityDeserializer<T>> createDeserializer(@NotNull final Type type) {
+            return (Optional<EntityMapper.EntityDeserializer<T>>) (Optional<?>) this.deserializers
+                    .computeIfAbsent(type, key -> Optional.of(new JacksonDeserializer<>(key, this.objectMapper)));
+        }
+
+    }
+
+
+    private static final class JacksonSerializer<T> implements EntityMapper.StreamingEntitySerializer<T> {
+
+        private final Class<T> clazz;
+        private final ObjectMapper objectMapper;
+        private final ObjectWriter writer;
+
+        private JacksonSerializer(@NotNull final Class<T> clazz, @NotNull final ObjectMapper objectMapper) {
+            this.clazz = clazz;
+            this.objectMapper = objectMapper;
+            this.writer = objectMapper.writerFor(clazz);
+        }
+
+        @Override
+        public void serialize(@NotNull final T input, @NotNull final OutputStream outputStream) throws IOException {
+            // Like ObjectMapper#writeValue, subclasses are written using their runtime type
+            final ObjectWriter writer = input.getClass() == this.clazz ? this.writer
+                    : this.objectMapper.writerFor(input.getClass());
+            try (final JsonGenerator generator = writer.createGenerator(outputStream, JsonEncoding.UTF8)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                writer.writeValue(generator, input);
+            }
+        }
+
+        @Override
+        public ContentType getContentType() {
+            return ContentType.JSON;
+        }
+
+    }
+
+
+    private static final class JacksonDeserializer<T> implements EntityMapper.StreamingEntityDeserializer<T> {
+
+        private final ObjectReader reader;
+
+        private JacksonDeserializer(@NotNull final Type type, @NotNull final ObjectMapper objectMapper) {
+            this.reader = objectMapper.readerFor(objectMapper.getTypeFactory().constructType(type));
+        }
+
+        @Override
+        public @NotNull T deserialize(@Nullable final ContentType contentType,
+                                      @NotNull final InputStream inputStream) throws IOException {
+            final Charset charset = contentType == null ? null : contentType.getCharset();
+            // Jackson detects the Unicode encodings itself, and parses them from bytes, which is
+            // faster than parsing characters. Only other charsets need to be decoded by a reader
+            try (final JsonParser parser = charset == null || isUnicode(charset)
+                    ? this.reader.createParser(inputStream)
+                    : this.reader.createParser(new InputStreamReader(inputStream, charset))) {
+                parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+                return this.reader.readValue(parser);
+            }
+        }
+
+        @Override
+        public ContentType getContentType() {
+            return ContentType.JSON;
+        }
+
+        private static boolean isUnicode(@NotNull final Charset charset) {
+            switch (charset.name()) {
+                case "UTF-8":
+                case "UTF-16":
+                case "UTF-16BE":
+                case "UTF-16LE":
+                case "UTF-32":
+                case "UTF-32BE":
+                case "UTF-32LE":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+    }
+
+}
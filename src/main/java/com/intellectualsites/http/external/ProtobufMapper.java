@@ -0,0 +1,207 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http.external;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.intellectualsites.http.ContentType;
+import com.intellectualsites.http.EntityMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.Objects;
+import java.util.Optional;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Class containing {@link EntityMapper mappers} for Protocol Buffers {@link MessageLite messages},
+ * which are exchanged as {@link ContentType#PROTOBUF application/x-protobuf}. As serializers are
+ * resolved through the type hierarchy, registering {@link #serializer()} for {@link MessageLite}
+ * covers every message type
+ */
+public final class ProtobufMapper {
+
+    private static final ProtobufSerializer<MessageLite> SERIALIZER = new ProtobufSerializer<>();
+    private static final ClassValue<Parser<?>> PARSERS = new ClassValue<Parser<?>>() {
+        @Override
+        protected Parser<?> computeValue(final Class<?> type) {
+            try {
+                return ((MessageLite) type.getMethod("getDefaultInstance").invoke(null)).getParserForType();
+            } catch (final ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException(String.format("Type '%s' is not a generated protobuf message",
+                        type.getName()), e);
+            }
+        }
+    };
+    private static final EntityMapper.EntityCodecFactory FALLBACK = new ProtobufCodecFactory();
+
+    private ProtobufMapper() {
+    }
+
+    /**
+     * Get a serializer that writes any message
+     *
+     * @return Serializer for messages
+     */
+    public static @NotNull EntityMapper.StreamingEntitySerializer<MessageLite> serializer() {
+        return SERIALIZER;
+    }
+
+    /**
+     * Get a serializer for a message type
+     *
+     * @param clazz Message class
+     * @param <T>   Message type
+     * @return Serializer for the message type
+     */
+    @SuppressWarnings("unchecked")
+    public static @NotNull <T extends MessageLite> EntityMapper.StreamingEntitySerializer<T> serializer(
+            @NotNull final Class<T> clazz) {
+        Objects.requireNonNull(clazz, "Class may not be null");
+        return (EntityMapper.StreamingEntitySerializer<T>) SERIALIZER;
+    }
+
+    /**
+     * Create a new deserializer for a generated message type. The parser of the
+     * type is looked up once and cached
+     *
+     * @param clazz Message class
+     * @param <T>   Message type
+     * @return Deserializer for the message type
+     * @throws IllegalArgumentException If the class is not a generated message
+     */
+    @SuppressWarnings("unchecked")
+    public static @NotNull <T extends MessageLite> EntityMapper.StreamingEntityDeserializer<T> deserializer(
+            @NotNull final Class<T> clazz) {
+        return new ProtobufDeserializer<>((Parser<T>) PARSERS.get(clazz));
+    }
+
+    /**
+     * Create a new deserializer using a message parser
+     *
+     * @param parser Message parser
+     * @param <T>    Message type
+     * @return Deserializer for the message type
+     */
+    public static @NotNull <T extends MessageLite> EntityMapper.StreamingEntityDeserializer<T> deserializer(
+            @NotNull final Parser<T> parser) {
+        return new ProtobufDeserializer<>(Objects.requireNonNull(parser, "Parser may not be null"));
+    }
+
+    /**
+     * Get a codec factory that handles every message type without a registered codec,
+     * see {@link EntityMapper#registerFallback(EntityMapper.EntityCodecFactory)}
+     *
+     * @return Codec factory
+     */
+    public static @NotNull EntityMapper.EntityCodecFactory fallback() {
+        return FALLBACK;
+    }
+
+
+    private static final class ProtobufCodecFactory implements EntityMapper.EntityCodecFactory {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @NotNull <T> Optional<EntityMapper.EntitySerializer<T>> createSerializer(@NotNull final Class<T> clazz) {
+            if (!MessageLite.class.isAssignableFrom(clazz)) {
+                return Optional.empty();
+            }
+            return Optional.of((EntityMapper.EntitySerializer<T>) SERIALIZER);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @NotNull <T> Optional<EntityMapper.EntityDeserializer<T>> createDeserializer(@NotNull final Type type) {
+            if (!(type instanceof Class) || !MessageLite.class.isAssignableFrom((Class<?>) type)) {
+                return Optional.empty();
+            }
+            return Optional.of((EntityMapper.EntityDeserializer<T>) deserializer((Class<? extends MessageLite>) type));
+        }
+
+    }
+
+
+    private static final class ProtobufSerializer<T extends MessageLite> implements EntityMapper.StreamingEntitySerializer<T> {
+
+        @Override
+        public void serialize(@NotNull final T input, @NotNull final OutputStream outputStream) throws IOException {
+            input.writeTo(outputStream);
+        }
+
+        @Override
+        public long getContentLength(@NotNull final T input) {
+            // Generated messages memoise their size, so writing does not compute it again
+            return input.getSerializedSize();
+        }
+
+        @Override
+        public byte @NotNull [] serialize(@NotNull final T input) {
+            return input.toByteArray();
+        }
+
+        @Override
+        public ContentType getContentType() {
+            return ContentType.PROTOBUF;
+        }
+
+    }
+
+
+    private static final class ProtobufDeserializer<T extends MessageLite> implements EntityMapper.StreamingEntityDeserializer<T> {
+
+        private final Parser<T> parser;
+
+        private ProtobufDeserializer(@NotNull final Parser<T> parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public @NotNull T deserialize(@Nullable final ContentType contentType,
+                                      @NotNull final InputStream inputStream) throws IOException {
+            return this.parser.parseFrom(inputStream);
+        }
+
+        @Override
+        public @NotNull T deserialize(@Nullable final ContentType contentType, final byte @NotNull [] input) {
+            try {
+                return this.parser.parseFrom(input);
+            } catch (final InvalidProtocolBufferException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public ContentType getContentType() {
+            return ContentType.PROTOBUF;
+        }
+
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * {@link HttpEngine} backed by {@code java.net.http}
+ */
+final class JdkHttpEngine extends HttpEngine {
+
+    // Headers that are managed by java.net.http, and may not be set by the request
+    private static final Set<String> RESTRICTED_HEADERS = restrictedHeaders();
+
+    private volatile java.net.http.HttpClient client;
+
+    JdkHttpEngine() {
+    }
+
+    private static @NotNull Set<String> restrictedHeaders() {
+        final Set<String> headers = new HashSet<>(List.of("connection", "content-length", "expect", "host", "upgrade"));
+        // Older Java 11 releases also reject these, which later releases accept
+        for (final String header : List.of("date", "from", "origin", "referer", "via", "warning")) {
+            try {
+                java.net.http.HttpRequest.newBuilder().header(header, "0");
+            } catch (final IllegalArgumentException e) {
+                headers.add(header);
+            }
+        }
+        return Set.copyOf(headers);
+    }
+
+    @Override
+    synchronized void configure(@NotNull final ClientSettings settings) {
+        if (this.client != null) {
+            return;
+        }
+        // The connection pool of java.net.http is configured through properties,
+        // which are read once, before the first client is created
+        setPropertyIfAbsent("jdk.httpclient.keepalive.timeout",
+                Long.toString(Math.max(1L, settings.getKeepAlive().getSeconds())));
+        if (settings.isConnectionReuse()) {
+            setPropertyIfAbsent("jdk.httpclient.connectionPoolSize", Integer.toString(settings.getMaxIdleConnections()));
+        }
+        final java.net.http.HttpClient.Builder builder = java.net.http.HttpClient.newBuilder()
+                .version(Version.HTTP_2)
+                .followRedirects(Redirect.NORMAL);
+        if (settings.getConnectTimeout() > 0) {
+            builder.connectTimeout(Duration.ofMillis(settings.getConnectTimeout()));
+        }
+        this.client = builder.build();
+    }
+
+    private java.net.http.@NotNull HttpClient client() {
+        java.net.http.HttpClient client = this.client;
+        if (client == null) {
+            // The engine is used without a HttpClient, which would have configured it
+            this.configure(new ClientSettings());
+            client = this.client;
+        }
+        return client;
+    }
+
+    @Override
+    public @NotNull HttpResponse execute(@NotNull final HttpRequest request) throws IOException {
+        final java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder();
+        try {
+            builder.uri(request.getURL().toURI());
+        } catch (final URISyntaxException e) {
+            throw new IOException(e);
+        }
+        final Headers headers = request.getHeaders();
+        headers.forEach((headerName, values) -> {
+            if (RESTRICTED_HEADERS.contains(headerName.toLowerCase(Locale.ROOT))) {
+                return;
+            }
+            for (final String value : values) {
+                builder.header(headerName, value);
+            }
+        });
+        final RequestBody body = RequestBody.of(request);
+        final BodyPublisher publisher;
+        if (body != null) {
+            if (headers.getHeader(HeaderName.CONTENT_TYPE).isEmpty()) {
+                builder.header("Content-Type", body.getContentType().toString());
+            }
+            publisher = BodyPublishers.ofByteArray(body.getBytes());
+        } else {
+            publisher = BodyPublishers.noBody();
+        }
+        builder.method(request.getMethod().name(), publisher);
+        if (request.getReadTimeout() > 0) {
+            // The closest equivalent of a read timeout, which applies until the response headers are received
+            builder.timeout(Duration.ofMillis(request.getReadTimeout()));
+        }
+        final java.net.http.HttpRequest httpRequest = builder.build();
+
+        final HttpResponse.Builder responseBuilder = HttpResponse.builder().withEntityMapper(request.getMapper());
+        if (!request.getMethod().hasBody()) {
+            this.readHeaders(responseBuilder, this.send(httpRequest, BodyHandlers.discarding(), request.getTimeout()));
+        } else if (request.isStreaming()) {
+            final java.net.http.HttpResponse<InputStream> response =
+                    this.send(httpRequest, BodyHandlers.ofInputStream(), request.getTimeout());
+            this.readHeaders(responseBuilder, response);
+            // Closing the stream before the end cancels the exchange, so it does not need to be drained
+            responseBuilder.withBodyStream(new ResponseBodyStream(response.body(), false, reusable -> { }));
+        } else {
+            final java.net.http.HttpResponse<byte[]> response =
+                    this.send(httpRequest, BodyHandlers.ofByteArray(), request.getTimeout());
+            this.readHeaders(responseBuilder, response);
+            responseBuilder.withBody(response.body());
+        }
+        return responseBuilder.build();
+    }
+
+    @Override
+    public void close() {
+        final java.net.http.HttpClient client = this.client;
+        if (client != null) {
+            JdkClients.close(client);
+        }
+    }
+
+    private <T> java.net.http.@NotNull HttpResponse<T> send(@NotNull final java.net.http.HttpRequest request,
+                                                            @NotNull final BodyHandler<T> bodyHandler,
+                                                            final long timeout) throws IOException {
+        final CompletableFuture<java.net.http.HttpResponse<T>> future = this.client().sendAsync(request, bodyHandler);
+        try {
+            if (timeout > 0) {
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            return future.get();
+        } catch (final TimeoutException e) {
+            // On Java 16 and newer, cancelling the future also aborts the exchange
+            future.cancel(true);
+            final SocketTimeoutException exception = new SocketTimeoutException(
+                    String.format("Request exceeded its deadline of %dms", timeout));
+            exception.initCause(e);
+            throw exception;
+        } catch (final InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            final InterruptedIOException exception = new InterruptedIOException("Request was interrupted");
+            exception.initCause(e);
+            throw exception;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void readHeaders(@NotNull final HttpResponse.Builder builder,
+                             @NotNull final java.net.http.HttpResponse<?> response) {
+        // java.net.http does not expose the reason phrase, which HTTP/2 does not carry anyway
+        builder.withStatus(response.statusCode())
+                .withStatusMessage("")
+                .withHeaders(() -> Headers.fromMap(response.headers().map()));
+    }
+
+}
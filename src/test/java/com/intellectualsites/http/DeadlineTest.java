@@ -0,0 +1,69 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that a deadline either aborts a request or is cancelled, but never both
+ */
+public class DeadlineTest {
+
+    @Test
+    void testCancelledBeforeAbort() throws InterruptedException {
+        final AtomicInteger aborts = new AtomicInteger();
+        final Deadline deadline = Deadline.start(50, aborts::incrementAndGet);
+        assertTrue(deadline.cancel());
+        Thread.sleep(100);
+        assertEquals(0, aborts.get());
+        assertFalse(deadline.isExpired());
+        // Closing the deadline after cancelling it is harmless
+        deadline.close();
+        assertTrue(deadline.cancel());
+    }
+
+    @Test
+    void testAbortedBeforeCancel() throws InterruptedException {
+        final CountDownLatch aborted = new CountDownLatch(1);
+        final Deadline deadline = Deadline.start(1, aborted::countDown);
+        assertTrue(aborted.await(5, TimeUnit.SECONDS));
+        assertTrue(deadline.isExpired());
+        assertFalse(deadline.cancel());
+        assertFalse(deadline.cancel());
+    }
+
+    @Test
+    void testNoDeadline() {
+        final Deadline deadline = Deadline.start(0, () -> fail("Aborted without a deadline"));
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.cancel());
+    }
+
+}
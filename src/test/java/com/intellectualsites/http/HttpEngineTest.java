@@ -0,0 +1,250 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.mock.action.ExpectationResponseCallback;
+import org.mockserver.model.ConnectionOptions;
+import org.mockserver.model.HttpRequest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that every engine reads fixed length, chunked and close delimited bodies
+ */
+public class HttpEngineTest {
+
+    private static final int PORT = 1081;
+    private static final String BASE_PATH = String.format("http://localhost:%d", PORT);
+    private static final String BODY;
+    private static ClientAndServer mockServer;
+
+    static {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        BODY = body.toString();
+    }
+
+    @BeforeAll
+    static void setupServer() {
+        mockServer = ClientAndServer.startClientAndServer(PORT);
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/fixed")).respond(
+                org.mockserver.model.HttpResponse.response().withStatusCode(200).withBody(BODY));
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/chunked")).respond(
+                org.mockserver.model.HttpResponse.response().withStatusCode(200).withBody(BODY)
+                        .withConnectionOptions(ConnectionOptions.connectionOptions().withChunkSize(1000)));
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/close")).respond(
+                org.mockserver.model.HttpResponse.response().withStatusCode(200).withBody(BODY)
+                        .withConnectionOptions(ConnectionOptions.connectionOptions()
+                                .withSuppressContentLengthHeader(true).withCloseSocket(true)));
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath("/echo"))
+                .respond(new EchoCallBack());
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath("/redirect")).respond(
+                org.mockserver.model.HttpResponse.response().withStatusCode(302)
+                        .withHeader("Location", BASE_PATH + "/fixed"));
+        mockServer.when(HttpRequest.request().withMethod("POST").withPath("/unauthorized")).respond(
+                org.mockserver.model.HttpResponse.response().withStatusCode(401).withBody("{\"err\":1}"));
+    }
+
+    @AfterAll
+    static void stopServer() {
+        mockServer.stop();
+    }
+
+    @Test
+    void testFixedLengthBody() throws IOException {
+        this.assertBody("/fixed");
+    }
+
+    @Test
+    void testChunkedBody() throws IOException {
+        this.assertBody("/chunked");
+    }
+
+    @Test
+    void testCloseDelimitedBody() throws IOException {
+        this.assertBody("/close");
+    }
+
+    @Test
+    void testEcho() throws IOException {
+        for (final HttpEngine engine : engines()) {
+            try (final HttpEngine ignored = engine) {
+                final HttpClient client = newClient(engine);
+                for (int i = 0; i < 2; i++) {
+                    final HttpResponse response = client.post("/echo").withInput(() -> BODY).execute();
+                    assertNotNull(response);
+                    assertEquals(BODY, response.getResponseEntity(String.class), engine.getClass().getSimpleName());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testPostRedirect() throws IOException {
+        // Buffered bodies can be sent again, so HttpURLConnection follows the redirect
+        try (final HttpEngine engine = HttpEngine.urlConnection()) {
+            final HttpResponse response = newClient(engine).post("/redirect").withInput(() -> "payload").execute();
+            assertNotNull(response);
+            assertEquals(200, response.getStatusCode());
+            assertEquals(BODY, response.getResponseEntity(String.class));
+        }
+    }
+
+    @Test
+    void testPostErrorBody() throws IOException {
+        for (final HttpEngine engine : engines()) {
+            try (final HttpEngine ignored = engine) {
+                final HttpResponse response = newClient(engine).post("/unauthorized").withInput(() -> "payload")
+                        .execute();
+                assertNotNull(response);
+                assertEquals(401, response.getStatusCode());
+                assertEquals("{\"err\":1}", response.getResponseEntity(String.class),
+                        engine.getClass().getSimpleName());
+            }
+        }
+    }
+
+    @Test
+    void testStreamedBodyClosedEarly() throws IOException {
+        for (final HttpEngine engine : engines()) {
+            try (final HttpEngine ignored = engine) {
+                final HttpClient client = newClient(engine);
+                for (final String path : new String[] {"/fixed", "/chunked"}) {
+                    try (final HttpResponse response = client.get(path).withStreamingResponse().execute()) {
+                        assertNotNull(response);
+                        final InputStream stream = response.getBodyStream();
+                        assertEquals('a', stream.read());
+                        assertEquals('b', stream.read());
+                    }
+                    assertEquals(BODY, client.get(path).execute().getResponseEntity(String.class));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testRestrictedHeaders() throws IOException {
+        // java.net.http on Java 11 and 12 rejects these, so the JDK engine has to leave them out
+        for (final HttpEngine engine : engines()) {
+            try (final HttpEngine ignored = engine) {
+                final HttpResponse response = newClient(engine).get("/fixed")
+                        .withHeader("Date", "Tue, 15 Nov 1994 08:12:31 GMT")
+                        .withHeader("From", "user@example.com")
+                        .withHeader("Origin", BASE_PATH)
+                        .withHeader("Referer", BASE_PATH)
+                        .withHeader("Via", "1.1 proxy")
+                        .withHeader("Warning", "199 - \"warning\"")
+                        .execute();
+                assertNotNull(response);
+                assertEquals(200, response.getStatusCode());
+            }
+        }
+    }
+
+    @Test
+    void testWithoutClient() throws IOException {
+        // Engines are public, and have to work without being configured by a HttpClient
+        for (final HttpEngine engine : engines()) {
+            try (final HttpEngine ignored = engine) {
+                final com.intellectualsites.http.HttpRequest request =
+                        com.intellectualsites.http.HttpRequest.newBuilder()
+                                .withMethod(HttpMethod.GET)
+                                .withURL(new URL(BASE_PATH + "/fixed"))
+                                .withMapper(EntityMapper.newInstance())
+                                .withEngine(engine)
+                                .onException(Throwable::printStackTrace)
+                                .build();
+                final HttpResponse response = engine.execute(request);
+                assertEquals(200, response.getStatusCode());
+                assertEquals(BODY, response.getResponseEntity(String.class), engine.getClass().getSimpleName());
+            }
+        }
+    }
+
+    private void assertBody(final String path) throws IOException {
+        for (final HttpEngine engine : engines()) {
+            try (final HttpEngine ignored = engine) {
+                final HttpClient client = newClient(engine);
+                // The second request may use a pooled connection
+                for (int i = 0; i < 2; i++) {
+                    final HttpResponse response = client.get(path).execute();
+                    assertNotNull(response);
+                    assertEquals(200, response.getStatusCode());
+                    assertEquals(BODY, response.getResponseEntity(String.class), engine.getClass().getSimpleName());
+                }
+            }
+        }
+    }
+
+    private static HttpClient newClient(final HttpEngine engine) {
+        return HttpClient.newBuilder()
+                .withBaseURL(BASE_PATH)
+                .withEntityMapper(EntityMapper.newInstance())
+                .withEngine(engine)
+                .withConnectionReuse(true)
+                .build();
+    }
+
+    private static List<HttpEngine> engines() {
+        final List<HttpEngine> engines = new ArrayList<>();
+        engines.add(HttpEngine.urlConnection());
+        engines.add(HttpEngine.nio());
+        if (javaVersion() >= 11) {
+            engines.add(HttpEngine.jdk());
+        } else {
+            assertThrows(UnsupportedOperationException.class, HttpEngine::jdk);
+        }
+        return engines;
+    }
+
+    private static int javaVersion() {
+        final String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.")) {
+            return Integer.parseInt(version.substring(2));
+        }
+        return Integer.parseInt(version);
+    }
+
+    public static final class EchoCallBack implements ExpectationResponseCallback {
+
+        @Override
+        public org.mockserver.model.HttpResponse handle(HttpRequest httpRequest) {
+            return org.mockserver.model.HttpResponse.response(httpRequest.getBodyAsString());
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the built-in JSON codec, without any I/O
+ */
+public class JsonMapperTest {
+
+    @Test
+    void testObjectRoundTrip() throws IOException {
+        final Pet pet = new Pet();
+        pet.name = "Rex";
+        pet.age = 7;
+        pet.weight = 12.5D;
+        pet.vaccinated = true;
+        pet.kind = Kind.DOG;
+        pet.tags = Arrays.asList("good", "boy");
+        pet.owner = new Pet();
+        pet.owner.name = "Owner";
+        final Pet read = read(write(pet), Pet.class);
+        assertEquals("Rex", read.name);
+        assertEquals(7, read.age);
+        assertEquals(12.5D, read.weight);
+        assertTrue(read.vaccinated);
+        assertEquals(Kind.DOG, read.kind);
+        assertEquals(Arrays.asList("good", "boy"), read.tags);
+        assertEquals("Owner", read.owner.name);
+        assertNull(read.owner.tags);
+    }
+
+    @Test
+    void testNullFieldsAreNotWritten() throws IOException {
+        final Pet pet = new Pet();
+        pet.age = 1;
+        assertEquals("{\"age\":1,\"weight\":0,\"vaccinated\":false}", write(pet));
+    }
+
+    @Test
+    void testGenericRoundTrip() throws IOException {
+        final Map<String, List<Integer>> map = new LinkedHashMap<>();
+        map.put("primes", Arrays.asList(2, 3, 5, 7));
+        map.put("empty", Collections.emptyList());
+        final String json = write(map);
+        assertEquals("{\"primes\":[2,3,5,7],\"empty\":[]}", json);
+        final Map<String, List<Integer>> read = JsonMapper.deserializer(new TypeReference<Map<String, List<Integer>>>() {
+        }).deserialize(ContentType.JSON, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(map, read);
+        assertEquals(Integer.class, read.get("primes").get(0).getClass());
+
+        final List<Pet> pets = JsonMapper.deserializer(new TypeReference<List<Pet>>() {
+        }).deserialize(ContentType.JSON, new ByteArrayInputStream(
+                "[{\"name\":\"a\"},{\"name\":\"b\",\"unknown\":[1,{\"x\":null}]}]".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, pets.size());
+        assertEquals("b", pets.get(1).name);
+    }
+
+    @Test
+    void testEscapes() throws IOException {
+        final String string = "quote\" backslash\\ slash/ newline\n tab\t control\u0001 separator\u2028 unicode\u00e9\ud83d\ude00";
+        final String json = write(string);
+        assertEquals("\"quote\\\" backslash\\\\ slash/ newline\\n tab\\t control\\u0001 separator\\u2028 "
+                + "unicode\u00e9\ud83d\ude00\"", json);
+        assertEquals(string, read(json, String.class));
+        assertEquals("/\b\f\u00e9\ud83d\ude00", read("\"\\/\\b\\f\\u00E9\\ud83d\\ude00\"", String.class));
+        assertThrows(IOException.class, () -> read("\"\\x\"", String.class));
+        assertThrows(IOException.class, () -> read("\"\\u12\"", String.class));
+        assertThrows(IOException.class, () -> read("\"line\nbreak\"", String.class));
+    }
+
+    @Test
+    void testDepthLimit() throws IOException {
+        assertEquals(1, ((List<?>) read(nested(512), Object.class)).size());
+        final IOException exception = assertThrows(IOException.class, () -> read(nested(513), Object.class));
+        assertTrue(exception.getMessage().contains("too deep"), exception.getMessage());
+
+        final List<Object> cyclic = new ArrayList<>();
+        cyclic.add(cyclic);
+        assertThrows(IllegalArgumentException.class, () -> write(cyclic));
+    }
+
+    @Test
+    void testMalformed() {
+        assertThrows(IOException.class, () -> read("{\"name\":\"Rex\"} {}", Pet.class));
+        assertThrows(IOException.class, () -> read("{\"name\":", Pet.class));
+        assertThrows(IOException.class, () -> read("{\"age\":\"seven\"}", Pet.class));
+        assertThrows(IOException.class, () -> read("{\"kind\":\"CAT\"}", Pet.class));
+        assertThrows(IOException.class, () -> read("[1,]", Object.class));
+        assertThrows(IOException.class, () -> read("", Object.class));
+    }
+
+    private static String nested(final int depth) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            builder.append('[');
+        }
+        for (int i = 0; i < depth; i++) {
+            builder.append(']');
+        }
+        return builder.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String write(final Object value) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonMapper.serializer((Class<Object>) value.getClass()).serialize(value, outputStream);
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static <T> T read(final String json, final Class<T> type) throws IOException {
+        return JsonMapper.deserializer(type).deserialize(ContentType.JSON,
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    enum Kind {
+        DOG,
+        FISH
+    }
+
+    static final class Pet {
+
+        String name;
+        int age;
+        double weight;
+        boolean vaccinated;
+        Kind kind;
+        List<String> tags;
+        Pet owner;
+
+    }
+
+}
@@ -0,0 +1,469 @@
+/*
+ * This file is part of HTTP4J, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 IntellectualSites
+ * Copyright (c) 2021-2022 contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.intellectualsites.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the framing and connection handling of the NIO engine against a server
+ * that sends scripted, and possibly malformed, responses
+ */
+public class NioHttpEngineTest {
+
+    private ScriptedServer server;
+    private HttpEngine engine;
+    private HttpClient client;
+
+    @BeforeEach
+    void setupClient() throws IOException {
+        this.server = new ScriptedServer();
+        this.engine = HttpEngine.nio();
+        final EntityMapper mapper = EntityMapper.newInstance()
+                .registerSerializer(StringBuilder.class, new ByteWiseSerializer());
+        this.client = HttpClient.newBuilder()
+                .withBaseURL(String.format("http://127.0.0.1:%d", this.server.getPort()))
+                .withEntityMapper(mapper)
+                .withEngine(this.engine)
+                .withConnectionReuse(true)
+                .withReadTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        this.engine.close();
+        this.server.close();
+    }
+
+    @Test
+    void testFixedLengthBody() {
+        this.server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        assertEquals("hello", this.get("/"));
+    }
+
+    @Test
+    void testChunkedBody() {
+        this.server.respond("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5;name=value\r\nhello\r\n1\r\n \r\nA\r\nchunked!!!\r\n0\r\nX-Trailer: yes\r\n\r\n");
+        assertEquals("hello chunked!!!", this.get("/"));
+    }
+
+    @Test
+    void testCloseDelimitedBody() {
+        this.server.respondAndClose("HTTP/1.1 200 OK\r\n\r\nread until closed");
+        assertEquals("read until closed", this.get("/"));
+    }
+
+    @Test
+    void testStreamedChunkedBody() throws IOException {
+        this.server.respond("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n2\r\nde\r\n0\r\n\r\n");
+        this.server.respond("HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nnext");
+        try (final HttpResponse response = this.client.get("/").withStreamingResponse().execute()) {
+            assertNotNull(response);
+            final InputStream stream = response.getBodyStream();
+            final StringBuilder body = new StringBuilder();
+            int b;
+            while ((b = stream.read()) != -1) {
+                body.append((char) b);
+            }
+            assertEquals("abcde", body.toString());
+        }
+        assertEquals("next", this.get("/"));
+        assertEquals(1, this.server.getConnections());
+    }
+
+    @Test
+    void testConnectionReuse() {
+        this.server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst");
+        this.server.respond("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n6\r\nsecond\r\n0\r\n\r\n");
+        this.server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nthird");
+        assertEquals("first", this.get("/"));
+        assertEquals("second", this.get("/"));
+        assertEquals("third", this.get("/"));
+        assertEquals(1, this.server.getConnections());
+    }
+
+    @Test
+    void testConnectionCloseIsNotReused() {
+        this.server.respondAndClose("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 5\r\n\r\nfirst");
+        this.server.respond("HTTP/1.1 200 OK\r\nContent-Length: 6\r\n\r\nsecond");
+        assertEquals("first", this.get("/"));
+        assertEquals("second", this.get("/"));
+        assertEquals(2, this.server.getConnections());
+        assertEquals(2, this.server.getRequests().size());
+    }
+
+    @Test
+    void testRetryOnStaleConnection() {
+        this.server.respond("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\none");
+        // The pooled connection is closed by the server once the next request arrives
+        this.server.closeWithoutResponse();
+        this.server.respond("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\ntwo");
+        assertEquals("one", this.get("/"));
+        assertEquals("two", this.get("/"));
+        assertEquals(2, this.server.getConnections());
+        assertEquals(3, this.server.getRequests().size());
+    }
+
+    @Test
+    void testNoRetryAfterPartialResponse() {
+        this.server.respond("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\none");
+        this.server.respondAndClose("HTTP/1.1 200 OK\r\nContent-Le");
+        assertEquals("one", this.get("/"));
+        this.assertFails("/");
+        assertEquals(1, this.server.getConnections());
+    }
+
+    @Test
+    void testInvalidContentLength() {
+        for (final String length : new String[] {"-1", "+5", "5,5", "0x5", "five", "99999999999999999999"}) {
+            this.server.respondAndClose(String.format("HTTP/1.1 200 OK\r\nContent-Length: %s\r\n\r\nhello", length));
+            final IOException exception = this.assertFails("/");
+            assertTrue(exception.getMessage().startsWith("Invalid content length"), exception.getMessage());
+        }
+    }
+
+    @Test
+    void testInvalidChunkSize() {
+        for (final String size : new String[] {"-1", "+5", "0x5", "zz", "", "10000000000000000"}) {
+            this.server.respondAndClose(String.format(
+                    "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n%s\r\nhello\r\n0\r\n\r\n", size));
+            final IOException exception = this.assertFails("/");
+            assertTrue(exception.getMessage().startsWith("Invalid chunk size"), exception.getMessage());
+        }
+    }
+
+    @Test
+    void testTruncatedBody() {
+        this.server.respondAndClose("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nshort");
+        assertInstanceOf(EOFException.class, this.assertFails("/"));
+        this.server.respondAndClose("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n10\r\nshort");
+        assertInstanceOf(EOFException.class, this.assertFails("/"));
+    }
+
+    @Test
+    void testInvalidStatusLine() {
+        this.server.respondAndClose("SSH-2.0-OpenSSH\r\n\r\n");
+        assertTrue(this.assertFails("/").getMessage().startsWith("Invalid status line"));
+    }
+
+    @Test
+    void testChunkedOutputClosedTwice() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream stream = new NioConnection.ChunkedOutputStream(bytes);
+        stream.write("body".getBytes(StandardCharsets.US_ASCII));
+        stream.close();
+        stream.close();
+        assertEquals("4\r\nbody\r\n0\r\n\r\n", new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void testHeaderLimits() {
+        final StringBuilder many = new StringBuilder("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n");
+        for (int i = 0; i < 100; i++) {
+            many.append("X-Header-").append(i).append(": value\r\n");
+        }
+        this.server.respondAndClose(many.append("\r\n").toString());
+        assertTrue(this.assertFails("/").getMessage().startsWith("Header section exceeds"));
+
+        final StringBuilder large = new StringBuilder("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n");
+        final char[] value = new char[4000];
+        Arrays.fill(value, 'a');
+        for (int i = 0; i < 20; i++) {
+            large.append("X-Header-").append(i).append(": ").append(value).append("\r\n");
+        }
+        this.server.respondAndClose(large.append("\r\n").toString());
+        assertTrue(this.assertFails("/").getMessage().startsWith("Header section exceeds"));
+    }
+
+    @Test
+    void testHeaderInjection() {
+        assertThrows(IllegalArgumentException.class, () -> this.client.get("/")
+                .withHeader("X-Test", "value\r\nX-Injected: true").execute());
+        assertThrows(IllegalArgumentException.class, () -> this.client.get("/")
+                .withHeader("X-Test", "value\0").execute());
+        assertThrows(IllegalArgumentException.class, () -> this.client.get("/")
+                .withHeader("X-Test: true\r\nX-Injected", "value").execute());
+        assertThrows(IllegalArgumentException.class, () -> this.client.get("/")
+                .withHeader("X Test", "value").execute());
+        assertEquals(0, this.server.getConnections());
+    }
+
+    @Test
+    void testRepeatedRequestHeaders() {
+        this.server.respond("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+        final HttpResponse response = this.client.get("/")
+                .withHeader("X-Test", "a")
+                .withHeader("X-Other", "b")
+                .withHeader("x-test", "c")
+                .execute();
+        assertNotNull(response);
+        final String request = this.server.getRequests().get(0);
+        // Values of the same header are sent as one field, in the order they were added
+        assertTrue(request.contains("\r\nX-Test: a,c\r\nX-Other: b\r\n"), request);
+    }
+
+    @Test
+    void testChunkedRequestBody() {
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            input.append((char) ('a' + i % 26));
+        }
+        this.server.respond("HTTP/1.1 201 Created\r\nContent-Length: 0\r\n\r\n");
+        final HttpResponse response = this.client.post("/").withInput(() -> input).execute();
+        assertNotNull(response);
+        assertEquals(201, response.getStatusCode());
+        final String request = this.server.getRequests().get(0);
+        assertTrue(request.toLowerCase(Locale.ROOT).contains("transfer-encoding: chunked\r\n"), request);
+        assertTrue(request.endsWith("\r\n\r\n" + input), request);
+        // Single byte writes are collected into chunks, rather than being sent one by one
+        assertTrue(this.server.getChunks() <= 3, Integer.toString(this.server.getChunks()));
+    }
+
+    private String get(final String path) {
+        final HttpResponse response = this.client.get(path).execute();
+        assertNotNull(response);
+        assertEquals(200, response.getStatusCode());
+        return response.getResponseEntity(String.class);
+    }
+
+    private IOException assertFails(final String path) {
+        final RuntimeException exception = assertThrows(RuntimeException.class, () -> this.client.get(path).execute());
+        return assertInstanceOf(IOException.class, exception.getCause());
+    }
+
+    /**
+     * Serializer that writes its input one byte at a time, with an unknown length
+     */
+    private static final class ByteWiseSerializer implements EntityMapper.StreamingEntitySerializer<StringBuilder> {
+
+        @Override
+        public void serialize(final StringBuilder input, final OutputStream outputStream) throws IOException {
+            for (int i = 0; i < input.length(); i++) {
+                outputStream.write(input.charAt(i));
+            }
+        }
+
+        @Override
+        public ContentType getContentType() {
+            return ContentType.TEXT;
+        }
+
+    }
+
+    /**
+     * Server that answers each request with the next scripted response, as is
+     */
+    private static final class ScriptedServer implements Closeable {
+
+        private final ServerSocket serverSocket;
+        private final BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+        private final List<String> requests = new CopyOnWriteArrayList<>();
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger chunks = new AtomicInteger();
+
+        private ScriptedServer() throws IOException {
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            final Thread thread = new Thread(this::accept, "ScriptedServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return this.serverSocket.getLocalPort();
+        }
+
+        int getConnections() {
+            return this.connections.get();
+        }
+
+        int getChunks() {
+            return this.chunks.get();
+        }
+
+        List<String> getRequests() {
+            return this.requests;
+        }
+
+        void respond(final String response) {
+            this.responses.add(new Response(response, false));
+        }
+
+        void respondAndClose(final String response) {
+            this.responses.add(new Response(response, true));
+        }
+
+        void closeWithoutResponse() {
+            this.responses.add(new Response(null, true));
+        }
+
+        private void accept() {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    final Socket socket = this.serverSocket.accept();
+                    this.connections.incrementAndGet();
+                    this.sockets.add(socket);
+                    final Thread thread = new Thread(() -> this.serve(socket), "ScriptedServer-Connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (final IOException ignored) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(final Socket socket) {
+            try (final Socket ignored = socket) {
+                final InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+                final OutputStream outputStream = socket.getOutputStream();
+                String request;
+                while ((request = this.readRequest(inputStream)) != null) {
+                    this.requests.add(request);
+                    final Response response = this.responses.poll(5, TimeUnit.SECONDS);
+                    if (response == null) {
+                        return;
+                    }
+                    if (response.raw != null) {
+                        outputStream.write(response.raw.getBytes(StandardCharsets.ISO_8859_1));
+                        outputStream.flush();
+                    }
+                    if (response.close) {
+                        return;
+                    }
+                }
+            } catch (final IOException | InterruptedException ignored) {
+                // The connection is closed
+            }
+        }
+
+        private String readRequest(final InputStream inputStream) throws IOException {
+            final StringBuilder request = new StringBuilder();
+            long contentLength = 0;
+            boolean chunked = false;
+            String line;
+            while (!(line = readLine(inputStream)).isEmpty()) {
+                request.append(line).append("\r\n");
+                final String lower = line.toLowerCase(Locale.ROOT);
+                if (lower.startsWith("content-length:")) {
+                    contentLength = Long.parseLong(line.substring(15).trim());
+                } else if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
+                    chunked = true;
+                }
+            }
+            if (request.length() == 0) {
+                return null;
+            }
+            request.append("\r\n");
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(readLine(inputStream), 16)) != 0) {
+                    this.chunks.incrementAndGet();
+                    copy(inputStream, body, size);
+                    readLine(inputStream);
+                }
+                readLine(inputStream);
+            } else {
+                copy(inputStream, body, contentLength);
+            }
+            return request.append(new String(body.toByteArray(), StandardCharsets.ISO_8859_1)).toString();
+        }
+
+        private static String readLine(final InputStream inputStream) throws IOException {
+            final StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = inputStream.read()) != '\n') {
+                if (b == -1) {
+                    if (line.length() == 0) {
+                        return "";
+                    }
+                    throw new EOFException();
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        private static void copy(final InputStream inputStream, final OutputStream outputStream, final long length)
+                throws IOException {
+            for (long i = 0; i < length; i++) {
+                final int b = inputStream.read();
+                if (b == -1) {
+                    throw new EOFException();
+                }
+                outputStream.write(b);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.serverSocket.close();
+            for (final Socket socket : this.sockets) {
+                socket.close();
+            }
+        }
+
+    }
+
+    private static final class Response {
+
+        private final String raw;
+        private final boolean close;
+
+        private Response(final String raw, final boolean close) {
+            this.raw = raw;
+            this.close = close;
+        }
+
+    }
+
+}